@@ -0,0 +1,41 @@
+package spreadsheetdb.v4;
+
+import com.google.api.services.sheets.v4.model.Request;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures `BatchDeleteRequest` sorting records and building DeleteDimension requests.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BatchDeleteRequestBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    private Table table;
+    private List<Record> records;
+
+    @Setup
+    public void setUp() {
+        table = new Table(BenchmarkData.TABLE_NAME, BenchmarkData.COLUMNS);
+        records = BenchmarkData.newRecords(rowCount);
+    }
+
+    @Benchmark
+    public List<Request> buildRequests() {
+        // Copies the records because they are sorted in place.
+        BatchDeleteRequest request = new BatchDeleteRequest(table, null)
+                .setRecords(new ArrayList<>(records));
+
+        return BatchDeleteRequest.buildRequests(1, request.sortedRowIndices());
+    }
+}
@@ -0,0 +1,40 @@
+package spreadsheetdb.v4;
+
+import com.google.api.services.sheets.v4.model.RowData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures `BatchUpdateRequest.convertToSingleRowData` converting records to cells.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BatchUpdateRequestBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    private BatchUpdateRequest request;
+    private List<Record> records;
+
+    @Setup
+    public void setUp() {
+        request = new BatchUpdateRequest(new Table(BenchmarkData.TABLE_NAME, BenchmarkData.COLUMNS), null);
+        records = BenchmarkData.newRecords(rowCount);
+    }
+
+    @Benchmark
+    public void convertToSingleRowData(Blackhole blackhole) {
+        for (Record record : records) {
+            List<RowData> rows = request.convertToSingleRowData(record.getValues());
+            blackhole.consume(rows);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package spreadsheetdb.v4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Data and a handler shared by benchmarks.
+ */
+class BenchmarkData {
+
+    static final String TABLE_NAME = "member";
+    static final List<Object> COLUMNS = Arrays.<Object>asList("id", "name", "age", "score");
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return Rows of `COLUMNS` typed as a query reads them. e.g.) [1L, "name1", 21L, 1.5]
+     */
+    static List<List<Object>> newRows(int rowCount) {
+        ArrayList<List<Object>> rows = new ArrayList<>(rowCount);
+
+        for (int i = 1; i <= rowCount; i++) {
+            rows.add(Arrays.<Object>asList(
+                    (long) i,
+                    "name" + i,
+                    (long) (20 + i % 50),
+                    i % 100 + 0.5));
+        }
+
+        return rows;
+    }
+
+    static List<Record> newRecords(int rowCount) {
+        List<List<Object>> rows = newRows(rowCount);
+        ArrayList<Record> records = new ArrayList<>(rowCount);
+
+        for (int i = 0; i < rows.size(); i++) {
+            records.add(new Record(i + 1, rows.get(i)));
+        }
+
+        return records;
+    }
+
+    /**
+     * Creates a handler on given transport. The quotas are not limited so that benchmarks are not throttled.
+     */
+    static SpreadsheetHandler newHandler(FakeSheetsTransport transport) throws IOException {
+        return transport.newHandler();
+    }
+}
@@ -0,0 +1,44 @@
+package spreadsheetdb.v4;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures A1 notation conversions of `Table.Grid`, as many times as `rowCount`.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GridBenchmark {
+
+    private static final String[] A1_NOTATIONS = {"A", "D", "Z", "AA", "AZ", "ZZ"};
+
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    @Benchmark
+    public int columnIndex() {
+        int sum = 0;
+
+        for (int i = 0; i < rowCount; i++) {
+            sum += Table.Grid.columnIndex(A1_NOTATIONS[i % A1_NOTATIONS.length]);
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    public int columnA1Notation() {
+        int length = 0;
+
+        for (int i = 0; i < rowCount; i++) {
+            length += Table.Grid.columnA1Notation(i % 26 + 1).length();
+        }
+
+        return length;
+    }
+}
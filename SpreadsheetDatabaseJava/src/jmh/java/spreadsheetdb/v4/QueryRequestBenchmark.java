@@ -0,0 +1,52 @@
+package spreadsheetdb.v4;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures `QueryRequest.execute` and `QueryRequest.executeColumnar` reading and parsing a whole table from the fake transport.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class QueryRequestBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    private SpreadsheetHandler spreadsheetHandler;
+    private Table table;
+
+    @Setup
+    public void setUp() throws IOException {
+        FakeSheetsTransport transport = new FakeSheetsTransport();
+        transport.putSheet(BenchmarkData.TABLE_NAME, BenchmarkData.COLUMNS, BenchmarkData.newRows(rowCount));
+
+        spreadsheetHandler = BenchmarkData.newHandler(transport);
+        table = new Table(BenchmarkData.TABLE_NAME, BenchmarkData.COLUMNS)
+                .setColumnType("id", Table.ColumnType.LONG)
+                .setColumnType("age", Table.ColumnType.INT)
+                .setColumnType("score", Table.ColumnType.DOUBLE);
+    }
+
+    @Benchmark
+    public List<Record> all() throws IOException {
+        return new QueryRequest(table, spreadsheetHandler).all().execute();
+    }
+
+    @Benchmark
+    public ColumnBatch allColumnar() throws IOException {
+        return new QueryRequest(table, spreadsheetHandler).all().executeColumnar();
+    }
+
+    @Benchmark
+    public List<Record> findByRowIndex() throws IOException {
+        return new QueryRequest(table, spreadsheetHandler).findByRowIndex(rowCount / 2).execute();
+    }
+}
@@ -0,0 +1,72 @@
+package spreadsheetdb.v4;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures typed getters of `Record`.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RecordBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rowCount;
+
+    private List<Record> records;
+
+    @Setup
+    public void setUp() {
+        records = BenchmarkData.newRecords(rowCount);
+    }
+
+    @Benchmark
+    public long getInt() {
+        long sum = 0;
+
+        for (Record record : records) {
+            sum += record.getInt(2);
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    public long getLong() {
+        long sum = 0;
+
+        for (Record record : records) {
+            sum += record.getLong(0);
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    public double getDouble() {
+        double sum = 0;
+
+        for (Record record : records) {
+            sum += record.getDouble(3);
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    public int getString() {
+        int length = 0;
+
+        for (Record record : records) {
+            length += record.getString(1).length();
+        }
+
+        return length;
+    }
+}
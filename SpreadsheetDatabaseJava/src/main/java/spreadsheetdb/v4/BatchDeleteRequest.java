@@ -5,13 +5,23 @@ import com.google.api.services.sheets.v4.model.*;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
 
 public class BatchDeleteRequest {
 
+    static final int DEFAULT_MAX_RANGES_PER_REQUEST = 1000;
+    static final int DEFAULT_PAGE_SIZE = 1000;
+
     private final Table table;
     private final SpreadsheetHandler spreadsheetHandler;
     private List<Record> records;
+    private Predicate<Record> condition;
+    private int maxRangesPerRequest = DEFAULT_MAX_RANGES_PER_REQUEST;
+    private int pageSize = DEFAULT_PAGE_SIZE;
 
     BatchDeleteRequest(Table table, SpreadsheetHandler spreadsheetHandler) {
         this.table = table;
@@ -20,50 +30,279 @@ public class BatchDeleteRequest {
 
     public BatchDeleteRequest setRecords(List<Record> records) {
         this.records = records;
+        this.condition = null;
+
+        return this;
+    }
+
+    /**
+     * Deletes rows matching given condition. The table is scanned page by page, and only row indices of matched rows are held.
+     */
+    public BatchDeleteRequest deleteWhere(Predicate<Record> condition) {
+        this.condition = condition;
+        this.records = null;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of rows read by a request of `deleteWhere`.
+     */
+    public BatchDeleteRequest setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("`pageSize` must be 1 or more.");
+        }
+
+        this.pageSize = pageSize;
 
         return this;
     }
 
+    /**
+     * Contiguous rows are deleted by a range. When the request has ranges more than given number,
+     * it is split into several batchUpdate calls.
+     */
+    public BatchDeleteRequest setMaxRangesPerRequest(int maxRangesPerRequest) {
+        if (maxRangesPerRequest < 1) {
+            throw new IllegalArgumentException("`maxRangesPerRequest` must be 1 or more.");
+        }
+
+        this.maxRangesPerRequest = maxRangesPerRequest;
+
+        return this;
+    }
+
+    /**
+     * Executes the request on the executor of the database.
+     */
+    public CompletableFuture<Void> executeAsync() {
+        return spreadsheetHandler.executeAsync(new SpreadsheetHandler.Task<Void>() {
+
+            @Override
+            public Void execute() throws IOException {
+                BatchDeleteRequest.this.execute();
+
+                return null;
+            }
+        });
+    }
+
     public void execute() throws IOException {
-        if (records == null || records.isEmpty()) {
-            return;
+        boolean isSoftDelete = table.isSoftDeleteEnabled();
+
+        if (!isSoftDelete) {
+            spreadsheetHandler.flushWriteBehind(table.getName());
+        }
+
+        // A soft delete does not shift rows, so that it runs with other requests on the table.
+        Lock lock = isSoftDelete
+                ? spreadsheetHandler.getTableLocks().forTable(table.getName()).readLock()
+                : spreadsheetHandler.getTableLocks().forTable(table.getName()).writeLock();
+        lock.lock();
+
+        try {
+            Integer sheetId = spreadsheetHandler.getSheetId(table.getName());
+
+            if (sheetId == null) {
+                return;
+            }
+
+            List<Integer> rowIndices;
+
+            if (condition != null) {
+                rowIndices = findRowIndices();
+            } else if (records != null) {
+                rowIndices = sortedRowIndices();
+            } else {
+                return;
+            }
+
+            if (rowIndices.isEmpty()) {
+                return;
+            }
+
+            if (isSoftDelete) {
+                execute(spreadsheetHandler, table, buildTombstoneRequests(sheetId, table, rowIndices), maxRangesPerRequest);
+                table.onRowsTombstoned(rowIndices);
+            } else {
+                execute(spreadsheetHandler, table, buildRequests(sheetId, rowIndices), maxRangesPerRequest);
+                table.onRowsDeleted(rowIndices);
+            }
+        } finally {
+            lock.unlock();
         }
+    }
 
-        Integer sheetId = spreadsheetHandler.getSheetId(table.getName());
+    /**
+     * Executes requests of ranges in descending order, so that a call does not shift rows of following calls.
+     *
+     * @param maxRangesPerRequest The maximum number of requests in a batchUpdate call.
+     */
+    static void execute(SpreadsheetHandler spreadsheetHandler, Table table, List<Request> requests, int maxRangesPerRequest) throws IOException {
+        int executedCount = 0;
 
-        if (sheetId != null) {
-            // Deletes a row from last row of given records.
-            this.records.sort(new Comparator<Record>() {
+        try {
+            for (int i = 0; i < requests.size(); i += maxRangesPerRequest) {
+                BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
+                        .setRequests(requests.subList(i, Math.min(i + maxRangesPerRequest, requests.size())));
 
-                @Override
-                public int compare(Record record1, Record record2) {
-                    if (record1.getRowIndex() == record2.getRowIndex()) {
-                        return 0;
-                    }
+                BatchUpdateSpreadsheetResponse response = spreadsheetHandler.execute(spreadsheetHandler.getService()
+                        .spreadsheets()
+                        .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request), Operation.DELETE, table.getName());
 
-                    return record1.getRowIndex() > record2.getRowIndex() ? -1 : 1;
+                executedCount++;
+            }
+        } catch (IOException | RuntimeException e) {
+            if (executedCount > 0) {
+                // Some rows are deleted.
+                table.onRowsRewritten();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * @return Row indices of rows matching the condition in descending order.
+     */
+    private List<Integer> findRowIndices() throws IOException {
+        QueryRequest queryRequest = new QueryRequest(table, spreadsheetHandler);
+        ArrayList<Integer> rowIndices = new ArrayList<>();
+        // Pages are read up to the last row of the grid, because rows after empty rows match too.
+        int lastRowIndex = spreadsheetHandler.getRowCount(table.getName()) - 1;
+
+        for (int startRowIndex = 1; startRowIndex <= lastRowIndex; startRowIndex += pageSize) {
+            List<Record> page = queryRequest.fetchWindow(startRowIndex, startRowIndex + pageSize - 1);
+
+            if (page == null) {
+                continue;
+            }
+
+            for (Record record : page) {
+                if (condition.test(record)) {
+                    rowIndices.add(record.getRowIndex());
+                }
+            }
+        }
+
+        Collections.reverse(rowIndices);
+
+        return rowIndices;
+    }
+
+    /**
+     * @return Row indices of the records in descending order.
+     */
+    List<Integer> sortedRowIndices() {
+        // Deletes a row from last row of given records.
+        this.records.sort(new Comparator<Record>() {
+
+            @Override
+            public int compare(Record record1, Record record2) {
+                if (record1.getRowIndex() == record2.getRowIndex()) {
+                    return 0;
+                }
+
+                return record1.getRowIndex() > record2.getRowIndex() ? -1 : 1;
+            }
+        });
+
+        ArrayList<Integer> rowIndices = new ArrayList<>(records.size());
+
+        for (Record record : records) {
+            // A row is deleted once.
+            if (rowIndices.isEmpty() || rowIndices.get(rowIndices.size() - 1) != record.getRowIndex()) {
+                rowIndices.add(record.getRowIndex());
+            }
+        }
+
+        return rowIndices;
+    }
+
+    /**
+     * Contiguous rows are deleted by a DeleteDimension of their range.
+     *
+     * @param rowIndices Row indices in descending order without duplicates.
+     * @return Requests in descending order of ranges.
+     */
+    static List<Request> buildRequests(int sheetId, List<Integer> rowIndices) {
+        ArrayList<Request> requests = new ArrayList<>();
+
+        for (int[] range : toRanges(rowIndices)) {
+            requests.add(new Request()
+                    .setDeleteDimension(new DeleteDimensionRequest()
+                            .setRange(new DimensionRange()
+                                    .setDimension(SpreadsheetHandler.Dimension.ROWS)
+                                    .setSheetId(sheetId)
+                                    .setStartIndex(range[0])
+                                    .setEndIndex(range[1]))));
+        }
+
+        return requests;
+    }
+
+    /**
+     * Contiguous rows are marked by an UpdateCells of their range in the tombstone column.
+     * In the replicated mode, new row versions are written with tombstones.
+     *
+     * @param rowIndices Row indices in descending order without duplicates.
+     */
+    static List<Request> buildTombstoneRequests(int sheetId, Table table, List<Integer> rowIndices) {
+        ArrayList<Request> requests = new ArrayList<>();
+        int tombstoneColumnIndex = table.getTombstoneColumnIndex();
+        int endColumnIndex = table.isReplicated() ? table.getRowVersionColumnIndex() + 1 : tombstoneColumnIndex + 1;
+
+        for (int[] range : toRanges(rowIndices)) {
+            ArrayList<RowData> rows = new ArrayList<>(range[1] - range[0]);
+
+            for (int i = range[0]; i < range[1]; i++) {
+                RowData row = new RowData()
+                        .setValues(Collections.singletonList(new CellData()
+                                .setUserEnteredValue(new ExtendedValue().setBoolValue(true))));
+
+                if (table.isReplicated()) {
+                    Replica.stamp(row, 1);
                 }
-            });
-
-            ArrayList<Request> requests = new ArrayList<>();
-
-            for (Record record : records) {
-                requests.add(new Request()
-                        .setDeleteDimension(new DeleteDimensionRequest()
-                                .setRange(new DimensionRange()
-                                        .setDimension(SpreadsheetHandler.Dimension.ROWS)
-                                        .setSheetId(sheetId)
-                                        .setStartIndex(record.getRowIndex())
-                                        .setEndIndex(record.getRowIndex() + 1))));
+
+                rows.add(row);
             }
 
-            BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
-                    .setRequests(requests);
+            requests.add(new Request()
+                    .setUpdateCells(new UpdateCellsRequest()
+                            .setRange(new GridRange()
+                                    .setSheetId(sheetId)
+                                    .setStartRowIndex(range[0])
+                                    .setEndRowIndex(range[1])
+                                    .setStartColumnIndex(tombstoneColumnIndex)
+                                    .setEndColumnIndex(endColumnIndex))
+                            .setFields("userEnteredValue")
+                            .setRows(rows)));
+        }
+
+        return requests;
+    }
+
+    /**
+     * @param rowIndices Row indices in descending order without duplicates.
+     * @return Ranges of contiguous rows, `[start, end)`, in descending order.
+     */
+    static List<int[]> toRanges(List<Integer> rowIndices) {
+        ArrayList<int[]> ranges = new ArrayList<>();
+        int i = 0;
+
+        while (i < rowIndices.size()) {
+            int endIndex = rowIndices.get(i) + 1;
+            int startIndex = rowIndices.get(i);
+            i++;
 
-            BatchUpdateSpreadsheetResponse response = spreadsheetHandler.getService()
-                    .spreadsheets()
-                    .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request)
-                    .execute();
+            while (i < rowIndices.size() && rowIndices.get(i) == startIndex - 1) {
+                startIndex--;
+                i++;
+            }
+
+            ranges.add(new int[]{startIndex, endIndex});
         }
+
+        return ranges;
     }
 }
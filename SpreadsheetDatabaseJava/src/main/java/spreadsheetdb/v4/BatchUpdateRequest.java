@@ -3,15 +3,67 @@ package spreadsheetdb.v4;
 import com.google.api.services.sheets.v4.model.*;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.concurrent.locks.Lock;
 
 public class BatchUpdateRequest {
 
+    /**
+     * The default budget of a batchUpdate call. The Sheets API recommends a payload under 2 MB.
+     */
+    static final long DEFAULT_MAX_REQUEST_BYTES = 2 * 1024 * 1024;
+    static final int DEFAULT_MAX_ROWS_PER_REQUEST = 10000;
+
+    /**
+     * Estimated bytes of JSON for a request and a cell except its value.
+     */
+    private static final int REQUEST_OVERHEAD_BYTES = 128;
+    private static final int CELL_OVERHEAD_BYTES = 48;
+    /**
+     * Estimated bytes of JSON for a `numberValue` or a `boolValue`.
+     */
+    private static final int TYPED_VALUE_BYTES = 24;
+
+    /**
+     * 2^53. Integers up to it are represented exactly by a double.
+     */
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
     final Table table;
     final Integer sheetId;
     final SpreadsheetHandler spreadsheetHandler;
     final ArrayList<Request> requests = new ArrayList<>();
+    final ArrayList<Record> insertedRecords = new ArrayList<>();
+    final ArrayList<Record> updatedRecords = new ArrayList<>();
+    /**
+     * Columns written of updated records. An element is `null` if the whole row is written.
+     */
+    final ArrayList<BitSet> updatedColumns = new ArrayList<>();
+    /**
+     * Values of `upsert` by key, which are resolved to updates or inserts when the request is executed.
+     * A key upserted twice is written once with the last values.
+     */
+    private final LinkedHashMap<Object, List<Object>> upsertedValuesByKey = new LinkedHashMap<>();
+    /**
+     * Columns written by `update` by record, so that they are marked as written after the request is executed.
+     */
+    private final IdentityHashMap<Record, BitSet> writtenColumnsByRecord = new IdentityHashMap<>();
+    private long maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+    private int maxRowsPerRequest = DEFAULT_MAX_ROWS_PER_REQUEST;
+    private int parallelism = 1;
 
     BatchUpdateRequest(Table table, SpreadsheetHandler spreadsheetHandler) {
         this.table = table;
@@ -20,40 +72,594 @@ public class BatchUpdateRequest {
     }
 
     public BatchUpdateRequest insert(Record record) {
-        requests.add(new Request()
-                .setAppendCells(new AppendCellsRequest()
-                        .setSheetId(sheetId)
-                        .setFields("*")
-                        .setRows(convertToSingleRowData(record.getValues()))));
+        List<RowData> rows = convertToWrittenRowData(record.getValues());
+        AppendCellsRequest lastAppendCells = requests.isEmpty() ? null : requests.get(requests.size() - 1).getAppendCells();
+
+        if (lastAppendCells != null && sheetId != null && sheetId.equals(lastAppendCells.getSheetId())) {
+            // Consecutive inserts are merged into an AppendCells.
+            lastAppendCells.getRows().addAll(rows);
+        } else {
+            requests.add(new Request()
+                    .setAppendCells(new AppendCellsRequest()
+                            .setSheetId(sheetId)
+                            .setFields("*")
+                            .setRows(rows)));
+        }
+
+        if (table.isMaintained()) {
+            insertedRecords.add(new Record(record.getRowIndex(), convertToWrittenValues(record.getValues())));
+        }
 
         return this;
     }
 
+    /**
+     * Writes the row of given record. If the record has columns changed by `Record.set`, only their cells are written
+     * with the userEnteredValue field mask. Adjacent changed cells are written by an UpdateCells of their range.
+     */
     public BatchUpdateRequest update(Record record) {
+        BitSet dirtyColumns = record.getDirtyColumns();
+        writtenColumnsByRecord.put(record, dirtyColumns);
+
+        if (dirtyColumns != null && !dirtyColumns.isEmpty()) {
+            return updateCells(record, dirtyColumns);
+        }
+
         GridRange rowRange = new GridRange()
                 .setSheetId(sheetId)
                 .setStartRowIndex(record.getRowIndex())
                 .setEndRowIndex(record.getRowIndex() + 1)
                 .setStartColumnIndex(0)
-                .setEndColumnIndex(getColumns().size());
+                // In the replicated mode, the row version is written too.
+                .setEndColumnIndex(table.isReplicated() ? table.getRowVersionColumnIndex() + 1 : getColumns().size());
 
         requests.add(new Request()
                 .setUpdateCells(new UpdateCellsRequest()
                         .setRange(rowRange)
                         .setFields("*")
-                        .setRows(convertToSingleRowData(record.getValues()))));
+                        .setRows(convertToWrittenRowData(record.getValues()))));
+
+        if (table.isMaintained()) {
+            updatedRecords.add(new Record(record.getRowIndex(), convertToWrittenValues(record.getValues())));
+            updatedColumns.add(null);
+        }
+
+        return this;
+    }
+
+    private BatchUpdateRequest updateCells(Record record, BitSet dirtyColumns) {
+        List<Object> values = record.getValues();
+        int startColumnIndex = dirtyColumns.nextSetBit(0);
+
+        // Columns out of the table are not written.
+        while (startColumnIndex >= 0 && startColumnIndex < getColumns().size()) {
+            int endColumnIndex = Math.min(dirtyColumns.nextClearBit(startColumnIndex), getColumns().size());
+
+            requests.add(newCellsRequest(record.getRowIndex(), startColumnIndex, endColumnIndex,
+                    convertToSingleRowData(new ArrayList<>(values.subList(startColumnIndex, endColumnIndex)))));
+
+            startColumnIndex = dirtyColumns.nextSetBit(endColumnIndex);
+        }
+
+        if (table.isReplicated()) {
+            ArrayList<RowData> rows = new ArrayList<>();
+            rows.add(new RowData());
+            Replica.stamp(rows.get(0), 0);
+
+            requests.add(newCellsRequest(record.getRowIndex(), table.getRowVersionColumnIndex(), table.getRowVersionColumnIndex() + 1, rows));
+        }
+
+        if (table.isMaintained()) {
+            // Cells of clean columns may be out of date, so that only dirty columns are applied.
+            updatedRecords.add(new Record(record.getRowIndex(), convertToWrittenValues(values)));
+            updatedColumns.add(dirtyColumns);
+        }
+
+        return this;
+    }
+
+    private Request newCellsRequest(int rowIndex, int startColumnIndex, int endColumnIndex, List<RowData> rows) {
+        return new Request()
+                .setUpdateCells(new UpdateCellsRequest()
+                        .setRange(new GridRange()
+                                .setSheetId(sheetId)
+                                .setStartRowIndex(rowIndex)
+                                .setEndRowIndex(rowIndex + 1)
+                                .setStartColumnIndex(startColumnIndex)
+                                .setEndColumnIndex(endColumnIndex))
+                        .setFields("userEnteredValue")
+                        .setRows(rows));
+    }
+
+    /**
+     * Updates the row whose primary key equals the key of given record, or inserts the record if the key is not found.
+     * The row is found by the index of the primary key without reading rows. The index is loaded by a single column read
+     * when it is used first and after rows are inserted, and follows updates and deletes made by this library.
+     * <p>
+     * The key is resolved when the request is executed or enqueued, in the write lock of the table, so that a key
+     * upserted by concurrent requests is appended once. Upserted rows are written after other rows of the request.
+     *
+     * @throws IllegalStateException    If the primary key of the table is not declared.
+     * @throws IllegalArgumentException If the key of the record is empty.
+     * @see Table#setPrimaryKey(String)
+     */
+    public BatchUpdateRequest upsert(Record record) {
+        ColumnIndex index = getPrimaryKeyIndex();
+        List<Object> values = record.getValues();
+        Object key = index.getColumnIndex() < values.size() ? ColumnIndex.key(values.get(index.getColumnIndex())) : null;
+
+        if (key == null) {
+            throw new IllegalArgumentException("The primary key `" + index.getColumn() + "` of the record must have a value.");
+        }
+
+        upsertedValuesByKey.remove(key);
+        upsertedValuesByKey.put(key, values);
+
+        return this;
+    }
+
+    private ColumnIndex getPrimaryKeyIndex() {
+        ColumnIndex index = table.getPrimaryKeyIndex();
+
+        if (index == null) {
+            throw new IllegalStateException("The primary key of `" + table.getName() + "` is not declared.");
+        }
+
+        return index;
+    }
+
+    /**
+     * Locks the table to resolve upserts. Keys appended by requests in the write-behind queue are not in the index
+     * until they are written, so that the queue is flushed before the lock is taken, and again if such a key is queued
+     * in the meantime.
+     *
+     * @return The locked write lock of the table.
+     */
+    private Lock lockForUpserts(ColumnIndex index) throws IOException {
+        Lock lock = spreadsheetHandler.getTableLocks().forTable(table.getName()).writeLock();
+
+        while (true) {
+            spreadsheetHandler.flushWriteBehind(table.getName());
+            lock.lock();
+
+            if (!index.isReserved(upsertedValuesByKey.keySet())) {
+                return lock;
+            }
+
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Turns upserts into updates of rows found by the index and inserts of other keys.
+     * Called in the write lock of the table.
+     *
+     * @return Keys inserted.
+     */
+    private List<Object> resolveUpserts(ColumnIndex index) throws IOException {
+        if (!index.isBuilt()) {
+            new QueryRequest(table, spreadsheetHandler).buildIndex(index);
+        }
+
+        ArrayList<Object> insertedKeys = new ArrayList<>();
+
+        for (Map.Entry<Object, List<Object>> entry : upsertedValuesByKey.entrySet()) {
+            List<Integer> rowIndices = index.find(entry.getKey());
+
+            if (rowIndices.size() > 1) {
+                throw new IllegalStateException("The primary key `" + entry.getKey() + "` is duplicated in `" + table.getName() + "`.");
+            }
+
+            if (!rowIndices.isEmpty()) {
+                update(new Record(rowIndices.get(0), entry.getValue()));
+            } else {
+                insert(new Record(entry.getValue()));
+                insertedKeys.add(entry.getKey());
+            }
+        }
+
+        upsertedValuesByKey.clear();
+
+        return insertedKeys;
+    }
+
+    /**
+     * When the request exceeds given bytes, it is split into several batchUpdate calls. The size is estimated.
+     */
+    public BatchUpdateRequest setMaxRequestBytes(long maxRequestBytes) {
+        if (maxRequestBytes < 1) {
+            throw new IllegalArgumentException("`maxRequestBytes` must be 1 or more.");
+        }
+
+        this.maxRequestBytes = maxRequestBytes;
 
         return this;
     }
 
+    /**
+     * When the request has rows more than given number, it is split into several batchUpdate calls.
+     */
+    public BatchUpdateRequest setMaxRowsPerRequest(int maxRowsPerRequest) {
+        if (maxRowsPerRequest < 1) {
+            throw new IllegalArgumentException("`maxRowsPerRequest` must be 1 or more.");
+        }
+
+        this.maxRowsPerRequest = maxRowsPerRequest;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of split batchUpdate calls in flight at once. Default is 1, calls are sent in order.
+     * If it is 2 or more, the order of inserted rows over split calls is not guaranteed.
+     */
+    public BatchUpdateRequest setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("`parallelism` must be 1 or more.");
+        }
+
+        this.parallelism = parallelism;
+
+        return this;
+    }
+
+    /**
+     * Executes the request on the executor of the database.
+     */
+    public CompletableFuture<Void> executeAsync() {
+        return spreadsheetHandler.executeAsync(new SpreadsheetHandler.Task<Void>() {
+
+            @Override
+            public Void execute() throws IOException {
+                BatchUpdateRequest.this.execute();
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Puts the request into the write-behind queue of the database. The queued requests, including ones for
+     * other tables, are sent in a batchUpdate call when the queue reaches its size or time threshold.
+     * If the write-behind mode is disabled, the request is executed asynchronously.
+     *
+     * @return A future completed when the request is written to the spreadsheet.
+     * @see SpreadsheetDatabase#enableWriteBehind(int, long)
+     */
+    public CompletableFuture<Void> enqueue() {
+        WriteBehindQueue writeBehindQueue = spreadsheetHandler.getWriteBehindQueue();
+
+        if (writeBehindQueue == null) {
+            return executeAsync();
+        }
+
+        if (upsertedValuesByKey.isEmpty()) {
+            return add(writeBehindQueue);
+        }
+
+        final ColumnIndex index = getPrimaryKeyIndex();
+        final List<Object> insertedKeys;
+        CompletableFuture<Void> future;
+
+        try {
+            Lock lock = lockForUpserts(index);
+
+            try {
+                insertedKeys = resolveUpserts(index);
+                // Other requests upserting the keys wait until the rows are written and indexed.
+                index.reserve(insertedKeys);
+                future = add(writeBehindQueue);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+
+            return future;
+        }
+
+        future.whenComplete(new BiConsumer<Void, Throwable>() {
+
+            @Override
+            public void accept(Void result, Throwable throwable) {
+                index.release(insertedKeys);
+            }
+        });
+
+        return future;
+    }
+
+    private CompletableFuture<Void> add(WriteBehindQueue writeBehindQueue) {
+        return writeBehindQueue.add(spreadsheetHandler, table.getName(), new ArrayList<>(requests), new Runnable() {
+
+            @Override
+            public void run() {
+                onExecuted(true);
+            }
+        });
+    }
+
     public void execute() throws IOException {
+        ColumnIndex index = upsertedValuesByKey.isEmpty() ? null : getPrimaryKeyIndex();
+        Lock lock;
+
+        if (index != null) {
+            lock = lockForUpserts(index);
+        } else {
+            lock = spreadsheetHandler.getTableLocks().forTable(table.getName()).readLock();
+            lock.lock();
+        }
+
+        try {
+            if (index != null) {
+                resolveUpserts(index);
+            }
+
+            List<List<Request>> chunks = split(requests);
+
+            try {
+                if (parallelism > 1 && chunks.size() > 1) {
+                    executeInParallel(chunks);
+                } else {
+                    for (List<Request> chunk : chunks) {
+                        executeChunk(chunk);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (chunks.size() > 1) {
+                    // Some chunks may be written.
+                    table.onRowsRewritten();
+                }
+
+                throw e;
+            }
+
+            onExecuted(parallelism == 1 || chunks.size() == 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called after the requests are written.
+     *
+     * @param isInsertedInOrder false if inserted rows may be out of order.
+     */
+    void onExecuted(boolean isInsertedInOrder) {
+        if (!insertedRecords.isEmpty()) {
+            if (isInsertedInOrder) {
+                table.onRecordsInserted(insertedRecords);
+            } else {
+                table.onRecordsInsertedInAnyOrder(insertedRecords);
+            }
+        }
+
+        if (!updatedRecords.isEmpty()) {
+            table.onRecordsUpdated(updatedRecords, updatedColumns);
+        }
+
+        for (Map.Entry<Record, BitSet> entry : writtenColumnsByRecord.entrySet()) {
+            entry.getKey().onWritten(entry.getValue());
+        }
+    }
+
+    void executeChunk(List<Request> chunk) throws IOException {
         BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
-                .setRequests(requests);
+                .setRequests(chunk);
 
-        BatchUpdateSpreadsheetResponse response = spreadsheetHandler.getService()
+        BatchUpdateSpreadsheetResponse response = spreadsheetHandler.execute(spreadsheetHandler.getService()
                 .spreadsheets()
-                .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request)
-                .execute();
+                .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request), operationOf(chunk), table.getName());
+    }
+
+    /**
+     * @return APPEND if the chunk only appends rows, otherwise UPDATE.
+     */
+    Operation operationOf(List<Request> chunk) {
+        for (Request request : chunk) {
+            if (request.getAppendCells() == null) {
+                return Operation.UPDATE;
+            }
+        }
+
+        return Operation.APPEND;
+    }
+
+    private void executeInParallel(List<List<Request>> chunks) throws IOException {
+        ExecutorCompletionService<Void> completionService = new ExecutorCompletionService<>(spreadsheetHandler.getNestedExecutor());
+        ArrayList<Future<Void>> futures = new ArrayList<>();
+        IOException exception = null;
+        int inFlight = 0;
+
+        try {
+            for (final List<Request> chunk : chunks) {
+                if (inFlight >= parallelism) {
+                    inFlight--;
+
+                    if ((exception = await(completionService.take())) != null) {
+                        break;
+                    }
+                }
+
+                futures.add(completionService.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws IOException {
+                        executeChunk(chunk);
+
+                        return null;
+                    }
+                }));
+                inFlight++;
+            }
+
+            while (inFlight > 0) {
+                inFlight--;
+                IOException e = await(completionService.take());
+
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+
+            Thread.currentThread().interrupt();
+            exception = new InterruptedIOException("The batch update is interrupted.");
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private static IOException await(Future<Void> future) throws InterruptedException {
+        try {
+            future.get();
+
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                return (IOException) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    List<List<Request>> split(List<Request> requests) {
+        return split(requests, maxRequestBytes, maxRowsPerRequest);
+    }
+
+    /**
+     * Splits requests into chunks under the byte and row budget. Rows of an AppendCells are split if needed.
+     */
+    static List<List<Request>> split(List<Request> requests, long maxRequestBytes, int maxRowsPerRequest) {
+        ArrayList<List<Request>> chunks = new ArrayList<>();
+        ArrayList<Request> chunk = new ArrayList<>();
+        long chunkBytes = 0;
+        int chunkRows = 0;
+
+        for (Request request : requests) {
+            AppendCellsRequest appendCells = request.getAppendCells();
+
+            if (appendCells == null || appendCells.getRows() == null) {
+                long bytes = estimateSize(request);
+                int rows = countRows(request);
+
+                if (!chunk.isEmpty() && (chunkBytes + bytes > maxRequestBytes || chunkRows + rows > maxRowsPerRequest)) {
+                    chunks.add(chunk);
+                    chunk = new ArrayList<>();
+                    chunkBytes = 0;
+                    chunkRows = 0;
+                }
+
+                chunk.add(request);
+                chunkBytes += bytes;
+                chunkRows += rows;
+                continue;
+            }
+
+            ArrayList<RowData> rows = new ArrayList<>();
+            chunkBytes += REQUEST_OVERHEAD_BYTES;
+
+            for (RowData row : appendCells.getRows()) {
+                long bytes = estimateSize(row);
+
+                if ((!chunk.isEmpty() || !rows.isEmpty())
+                        && (chunkBytes + bytes > maxRequestBytes || chunkRows + 1 > maxRowsPerRequest)) {
+                    if (!rows.isEmpty()) {
+                        chunk.add(newAppendCells(appendCells, rows));
+                        rows = new ArrayList<>();
+                    }
+
+                    chunks.add(chunk);
+                    chunk = new ArrayList<>();
+                    chunkBytes = REQUEST_OVERHEAD_BYTES;
+                    chunkRows = 0;
+                }
+
+                rows.add(row);
+                chunkBytes += bytes;
+                chunkRows++;
+            }
+
+            if (!rows.isEmpty()) {
+                chunk.add(rows.size() == appendCells.getRows().size() ? request : newAppendCells(appendCells, rows));
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    private static Request newAppendCells(AppendCellsRequest appendCells, List<RowData> rows) {
+        return new Request()
+                .setAppendCells(new AppendCellsRequest()
+                        .setSheetId(appendCells.getSheetId())
+                        .setFields(appendCells.getFields())
+                        .setRows(rows));
+    }
+
+    private static int countRows(Request request) {
+        UpdateCellsRequest updateCells = request.getUpdateCells();
+
+        if (updateCells != null && updateCells.getRows() != null) {
+            return updateCells.getRows().size();
+        }
+
+        return 0;
+    }
+
+    private static long estimateSize(Request request) {
+        long bytes = REQUEST_OVERHEAD_BYTES;
+        UpdateCellsRequest updateCells = request.getUpdateCells();
+
+        if (updateCells != null && updateCells.getRows() != null) {
+            for (RowData row : updateCells.getRows()) {
+                bytes += estimateSize(row);
+            }
+        }
+
+        return bytes;
+    }
+
+    private static long estimateSize(RowData row) {
+        long bytes = 16;
+        List<CellData> cells = row.getValues();
+
+        if (cells == null) {
+            return bytes;
+        }
+
+        for (CellData cell : cells) {
+            bytes += CELL_OVERHEAD_BYTES;
+            ExtendedValue value = cell.getUserEnteredValue();
+
+            if (value != null && value.getStringValue() != null) {
+                bytes += value.getStringValue().length();
+            } else if (value != null) {
+                bytes += TYPED_VALUE_BYTES;
+            }
+        }
+
+        return bytes;
     }
 
     List<Object> getColumns() {
@@ -61,12 +667,11 @@ public class BatchUpdateRequest {
     }
 
     List<RowData> convertToSingleRowData(List<Object> values) {
-        ArrayList<CellData> cellDataList = new ArrayList<>();
+        ArrayList<CellData> cellDataList = new ArrayList<>(values.size());
 
         for (Object value : values) {
             cellDataList.add(new CellData()
-                    .setUserEnteredValue(new ExtendedValue()
-                            .setStringValue(value.toString())));
+                    .setUserEnteredValue(toExtendedValue(value)));
         }
 
         List<RowData> rowDataList = new ArrayList<>();
@@ -75,4 +680,88 @@ public class BatchUpdateRequest {
 
         return rowDataList;
     }
+
+    /**
+     * @return A row of given values. In the replicated mode, it has a new row version.
+     */
+    private List<RowData> convertToWrittenRowData(List<Object> values) {
+        List<RowData> rows = convertToSingleRowData(values);
+
+        if (table.isReplicated()) {
+            Replica.stamp(rows.get(0), table.getRowVersionColumnIndex());
+        }
+
+        return rows;
+    }
+
+    /**
+     * @return Given values as a query reads them after they are written.
+     */
+    List<Object> convertToWrittenValues(List<Object> values) {
+        ArrayList<Object> writtenValues = new ArrayList<>(values.size());
+
+        for (Object value : values) {
+            Object cellValue = toCellValue(value);
+            writtenValues.add(cellValue != null ? Record.normalize(cellValue) : "");
+        }
+
+        return writtenValues;
+    }
+
+    /**
+     * Numbers are written as `numberValue` and booleans as `boolValue`, so that Sheets can sort and aggregate them.
+     *
+     * @return A value, or `null` if given value is `null`. The cell is cleared.
+     */
+    static ExtendedValue toExtendedValue(Object value) {
+        Object cellValue = toCellValue(value);
+
+        if (cellValue == null) {
+            return null;
+        }
+
+        if (cellValue instanceof Double) {
+            return new ExtendedValue().setNumberValue((Double) cellValue);
+        }
+
+        if (cellValue instanceof Boolean) {
+            return new ExtendedValue().setBoolValue((Boolean) cellValue);
+        }
+
+        return new ExtendedValue().setStringValue((String) cellValue);
+    }
+
+    /**
+     * @return A Double, a Boolean, a String or `null`.
+     * A number that a double cannot represent exactly, e.g.) a long over 2^53, is a String not to lose its digits.
+     */
+    private static Object toCellValue(Object value) {
+        if (value == null || value instanceof Boolean || value instanceof String) {
+            return value;
+        }
+
+        if (value instanceof Number) {
+            double doubleValue = ((Number) value).doubleValue();
+
+            if (value instanceof Double || value instanceof Float) {
+                return Double.isNaN(doubleValue) || Double.isInfinite(doubleValue) ? value.toString() : doubleValue;
+            }
+
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                long longValue = ((Number) value).longValue();
+
+                return Math.abs(longValue) <= MAX_EXACT_LONG ? doubleValue : value.toString();
+            }
+
+            try {
+                BigDecimal decimal = new BigDecimal(value.toString());
+
+                return new BigDecimal(doubleValue).compareTo(decimal) == 0 ? doubleValue : value.toString();
+            } catch (NumberFormatException e) {
+                return value.toString();
+            }
+        }
+
+        return value.toString();
+    }
 }
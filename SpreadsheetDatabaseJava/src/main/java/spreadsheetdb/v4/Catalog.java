@@ -0,0 +1,70 @@
+package spreadsheetdb.v4;
+
+import com.google.api.services.sheets.v4.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tables found in the spreadsheet at startup. Header rows of all sheets and rows of the meta table
+ * are read in a batchGet call, so that opening an existing database does not read tables one by one.
+ * A sheet without a header row is not a table.
+ */
+class Catalog {
+
+    private final List<Record> metadataRecords;
+    private final LinkedHashMap<String, List<Object>> columnsByTable;
+
+    private Catalog(List<Record> metadataRecords, LinkedHashMap<String, List<Object>> columnsByTable) {
+        this.metadataRecords = metadataRecords;
+        this.columnsByTable = columnsByTable;
+    }
+
+    /**
+     * @param metadata The meta table. It must exist in the spreadsheet.
+     */
+    static Catalog load(SpreadsheetHandler spreadsheetHandler, Metadata metadata) throws IOException {
+        QueryRequest metadataQuery = new QueryRequest(metadata, spreadsheetHandler).all();
+        ArrayList<String> tableNames = new ArrayList<>();
+        ArrayList<String> ranges = new ArrayList<>();
+        ranges.add(Table.Grid.range(metadata.getName(), "A2:" + metadata.getReadEndColumnA1Notation()));
+
+        for (String title : spreadsheetHandler.getSheetTitles()) {
+            if (!title.equals(metadata.getName())) {
+                tableNames.add(title);
+                ranges.add(Table.Grid.range(title, "1:1"));
+            }
+        }
+
+        List<ValueRange> valueRanges = QueryRequest.batchGet(spreadsheetHandler, ranges, null);
+        List<Record> metadataRecords = metadataQuery.toRecords(!valueRanges.isEmpty() ? valueRanges.get(0).getValues() : null);
+        LinkedHashMap<String, List<Object>> columnsByTable = new LinkedHashMap<>();
+
+        for (int i = 0; i < tableNames.size(); i++) {
+            List<List<Object>> values = i + 1 < valueRanges.size() ? valueRanges.get(i + 1).getValues() : null;
+
+            if (values != null && !values.isEmpty() && !values.get(0).isEmpty()) {
+                columnsByTable.put(tableNames.get(i), values.get(0));
+            }
+        }
+
+        return new Catalog(metadataRecords, columnsByTable);
+    }
+
+    /**
+     * @return Records of the meta table as `QueryRequest.all()` returns.
+     */
+    List<Record> getMetadataRecords() {
+        return metadataRecords;
+    }
+
+    /**
+     * @return Columns of found tables by table name.
+     */
+    Map<String, List<Object>> getColumnsByTable() {
+        return columnsByTable;
+    }
+}
@@ -4,6 +4,7 @@ import com.google.api.services.sheets.v4.model.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 public class ChangeTableRequest {
 
@@ -47,6 +48,21 @@ public class ChangeTableRequest {
         return this;
     }
 
+    /**
+     * Executes the request on the executor of the database.
+     */
+    public CompletableFuture<Void> executeAsync() {
+        return spreadsheetHandler.executeAsync(new SpreadsheetHandler.Task<Void>() {
+
+            @Override
+            public Void execute() throws IOException {
+                ChangeTableRequest.this.execute();
+
+                return null;
+            }
+        });
+    }
+
     public void execute() throws IOException {
         if (requests.isEmpty()) {
             return;
@@ -55,9 +71,8 @@ public class ChangeTableRequest {
         BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
                 .setRequests(requests);
 
-        BatchUpdateSpreadsheetResponse response = spreadsheetHandler.getService()
+        BatchUpdateSpreadsheetResponse response = spreadsheetHandler.execute(spreadsheetHandler.getService()
                 .spreadsheets()
-                .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request)
-                .execute();
+                .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request), Operation.CHANGE_TABLE, table != null ? table.getName() : null);
     }
 }
@@ -0,0 +1,260 @@
+package spreadsheetdb.v4;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
+import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
+import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.store.FileDataStoreFactory;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.SheetsScopes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An HTTP transport and a credential shared by databases. The transport pools connections so that
+ * databases reuse kept-alive connections, and the user is authorized once.
+ *
+ * @see SpreadsheetDatabase.Builder
+ */
+public class ClientContext implements Closeable {
+
+    public static class Builder {
+
+        private final String applicationName;
+        private InputStream credentialsFile;
+        private Credential credential;
+        private HttpTransport httpTransport;
+        private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        private long idleConnectionTimeoutMillis = DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS;
+
+        public Builder(String applicationName) {
+            this.applicationName = applicationName;
+        }
+
+        /**
+         * @param credentialsFile The credentials.json file. The user is authorized by it when the context is built.
+         */
+        public Builder setCredentials(InputStream credentialsFile) {
+            this.credentialsFile = credentialsFile;
+
+            return this;
+        }
+
+        /**
+         * @param credential An authorized credential, e.g.) of a service account. It takes precedence over the credentials file.
+         */
+        public Builder setCredential(Credential credential) {
+            this.credential = credential;
+
+            return this;
+        }
+
+        public Builder setMaxConnections(int maxConnections) {
+            if (maxConnections < 1) {
+                throw new IllegalArgumentException("`maxConnections` must be 1 or more.");
+            }
+
+            this.maxConnections = maxConnections;
+
+            return this;
+        }
+
+        /**
+         * @param maxConnectionsPerRoute The maximum number of connections to a host. All calls of the Sheets API go to a host.
+         */
+        public Builder setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            if (maxConnectionsPerRoute < 1) {
+                throw new IllegalArgumentException("`maxConnectionsPerRoute` must be 1 or more.");
+            }
+
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+
+            return this;
+        }
+
+        /**
+         * @param idleConnectionTimeoutMillis Pooled connections idle longer than it are closed.
+         *                                    If it is 0 or less, idle connections are not closed.
+         */
+        public Builder setIdleConnectionTimeoutMillis(long idleConnectionTimeoutMillis) {
+            this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+
+            return this;
+        }
+
+        /**
+         * Uses given transport instead of the pooled transport, e.g.) a fake transport in benchmarks.
+         */
+        Builder setHttpTransport(HttpTransport httpTransport) {
+            this.httpTransport = httpTransport;
+
+            return this;
+        }
+
+        /**
+         * Creates the transport and authorizes the user if needed.
+         */
+        public ClientContext build() throws GeneralSecurityException, IOException {
+            HttpTransport transport = httpTransport != null ? httpTransport : newPooledTransport(maxConnections, maxConnectionsPerRoute);
+            Credential authorizedCredential = credential;
+
+            if (authorizedCredential == null && credentialsFile != null) {
+                authorizedCredential = authorize(credentialsFile, transport);
+            }
+
+            return new ClientContext(applicationName, transport, authorizedCredential, idleConnectionTimeoutMillis);
+        }
+    }
+
+    static final int DEFAULT_MAX_CONNECTIONS = 200;
+    static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+    private static final String TOKENS_DIRECTORY_PATH = "tokens";
+
+    /**
+     * Global instance of the scopes required by this library.
+     * If modifying these scopes, delete your previously saved tokens/ folder.
+     */
+    private static final List<String> SCOPES = Collections.singletonList(SheetsScopes.SPREADSHEETS);
+
+    private final String applicationName;
+    private final HttpTransport httpTransport;
+    private final Credential credential;
+    private final ScheduledExecutorService idleConnectionEvictor;
+
+    private ClientContext(String applicationName, HttpTransport httpTransport, Credential credential, long idleConnectionTimeoutMillis) {
+        this.applicationName = applicationName;
+        this.httpTransport = httpTransport;
+        this.credential = credential;
+        this.idleConnectionEvictor = httpTransport instanceof ApacheHttpTransport && idleConnectionTimeoutMillis > 0
+                ? startIdleConnectionEvictor((ApacheHttpTransport) httpTransport, idleConnectionTimeoutMillis)
+                : null;
+    }
+
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    public HttpTransport getHttpTransport() {
+        return httpTransport;
+    }
+
+    public Credential getCredential() {
+        return credential;
+    }
+
+    /**
+     * @return A new service of the Sheets API on the shared transport and credential. It is lightweight.
+     */
+    Sheets newService() {
+        return new Sheets.Builder(httpTransport, JSON_FACTORY, new SentBytesCounter(credential))
+                .setApplicationName(applicationName)
+                .build();
+    }
+
+    /**
+     * Closes pooled connections. Databases using this context cannot call the Sheets API after it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (idleConnectionEvictor != null) {
+            idleConnectionEvictor.shutdownNow();
+        }
+
+        httpTransport.shutdown();
+    }
+
+    /**
+     * `ApacheHttpTransport` of google-http-client 1.23 is built on the `HttpParams` API of httpclient 4.0,
+     * which has no `PoolingHttpClientConnectionManager`. The API is deprecated in httpclient 4.3 or later,
+     * so that its uses are limited to this method and `startIdleConnectionEvictor`.
+     */
+    @SuppressWarnings("deprecation")
+    private static HttpTransport newPooledTransport(int maxConnections, int maxConnectionsPerRoute) throws GeneralSecurityException, IOException {
+        ApacheHttpTransport.Builder builder = new ApacheHttpTransport.Builder()
+                .trustCertificates(GoogleUtils.getCertificateTrustStore());
+
+        // The transport uses a thread-safe connection manager configured by these parameters.
+        org.apache.http.conn.params.ConnManagerParams.setMaxTotalConnections(builder.getHttpParams(), maxConnections);
+        org.apache.http.conn.params.ConnManagerParams.setMaxConnectionsPerRoute(builder.getHttpParams(),
+                new org.apache.http.conn.params.ConnPerRouteBean(maxConnectionsPerRoute));
+
+        return builder.build();
+    }
+
+    /**
+     * The connection manager of the transport is of the deprecated API. See `newPooledTransport`.
+     */
+    @SuppressWarnings("deprecation")
+    private static ScheduledExecutorService startIdleConnectionEvictor(ApacheHttpTransport httpTransport,
+                                                                       final long idleConnectionTimeoutMillis) {
+
+        final org.apache.http.conn.ClientConnectionManager connectionManager = httpTransport.getHttpClient().getConnectionManager();
+
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "spreadsheetdb-idle-connection-evictor");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        long periodMillis = Math.max(1, idleConnectionTimeoutMillis / 2);
+
+        evictor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(idleConnectionTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+
+        return evictor;
+    }
+
+    /**
+     * Creates an authorized Credential object.
+     *
+     * @param credentialsFile The credentials.json file.
+     * @param httpTransport   The HTTP Transport.
+     * @return An authorized Credential object.
+     * @throws IOException If the credentials.json file cannot be found.
+     */
+    private static Credential authorize(InputStream credentialsFile, HttpTransport httpTransport) throws IOException {
+        // Load client secrets.
+        GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(credentialsFile));
+
+        // Build flow and trigger user authorization request.
+        GoogleAuthorizationCodeFlow flow = new GoogleAuthorizationCodeFlow.Builder(
+                httpTransport, JSON_FACTORY, clientSecrets, SCOPES)
+                .setDataStoreFactory(new FileDataStoreFactory(new java.io.File(TOKENS_DIRECTORY_PATH)))
+                .setAccessType("offline")
+                .build();
+        LocalServerReceiver receiver = new LocalServerReceiver.Builder().setPort(8888).build();
+
+        return new AuthorizationCodeInstalledApp(flow, receiver).authorize("user");
+    }
+}
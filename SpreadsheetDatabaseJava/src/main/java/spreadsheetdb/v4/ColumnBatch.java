@@ -0,0 +1,296 @@
+package spreadsheetdb.v4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Rows of a table held column by column. A column is an array of its declared type, `int[]`, `long[]`, `double[]`,
+ * or a dictionary-encoded `StringColumn`. An empty cell is 0 or `null` in the array and is marked in the null bits.
+ *
+ * @see QueryRequest#executeColumnar()
+ * @see Table#setColumnType(String, Table.ColumnType)
+ */
+public class ColumnBatch {
+
+    /**
+     * Strings encoded as codes of a dictionary. Each distinct string is held once.
+     */
+    public static class StringColumn {
+
+        private final String[] dictionary;
+        private final int[] codes;
+
+        StringColumn(String[] dictionary, int[] codes) {
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        /**
+         * @return Distinct strings. A code is an index of it.
+         */
+        public String[] getDictionary() {
+            return dictionary;
+        }
+
+        /**
+         * @return Codes by row. -1 if the cell is empty.
+         */
+        public int[] getCodes() {
+            return codes;
+        }
+
+        /**
+         * @return The string of given row, or `null` if the cell is empty.
+         */
+        public String get(int row) {
+            int code = codes[row];
+
+            return code >= 0 ? dictionary[code] : null;
+        }
+    }
+
+    private final List<Object> columns;
+    private final Table.ColumnType[] types;
+    private final int rowCount;
+    private final int[] rowIndices;
+    private final Object[] arrays;
+    private final BitSet[] nulls;
+
+    private ColumnBatch(List<Object> columns, Table.ColumnType[] types, int rowCount, int[] rowIndices, Object[] arrays, BitSet[] nulls) {
+        this.columns = columns;
+        this.types = types;
+        this.rowCount = rowCount;
+        this.rowIndices = rowIndices;
+        this.arrays = arrays;
+        this.nulls = nulls;
+    }
+
+    public List<Object> getColumns() {
+        return columns;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return Row indices by row, as `Record.getRowIndex()`.
+     */
+    public int[] getRowIndices() {
+        return rowIndices;
+    }
+
+    public Table.ColumnType getColumnType(String column) {
+        return types[columnIndexOf(column)];
+    }
+
+    public int[] getInts(String column) {
+        return (int[]) arrayOf(column, Table.ColumnType.INT);
+    }
+
+    public long[] getLongs(String column) {
+        return (long[]) arrayOf(column, Table.ColumnType.LONG);
+    }
+
+    public double[] getDoubles(String column) {
+        return (double[]) arrayOf(column, Table.ColumnType.DOUBLE);
+    }
+
+    public StringColumn getStrings(String column) {
+        return (StringColumn) arrayOf(column, Table.ColumnType.STRING);
+    }
+
+    /**
+     * @return Bits of rows whose cell of given column is empty.
+     */
+    public BitSet getNulls(String column) {
+        return nulls[columnIndexOf(column)];
+    }
+
+    public boolean isNull(String column, int row) {
+        return nulls[columnIndexOf(column)].get(row);
+    }
+
+    private Object arrayOf(String column, Table.ColumnType type) {
+        int columnIndex = columnIndexOf(column);
+
+        if (types[columnIndex] != type) {
+            throw new IllegalStateException("The column `" + column + "` is " + types[columnIndex] + ", not " + type + ".");
+        }
+
+        return arrays[columnIndex];
+    }
+
+    private int columnIndexOf(String column) {
+        int columnIndex = columns.indexOf(column);
+
+        if (columnIndex < 0) {
+            throw new IllegalArgumentException("The column `" + column + "` is not found.");
+        }
+
+        return columnIndex;
+    }
+
+    /**
+     * Fills arrays of columns row by row.
+     */
+    static class Builder {
+
+        private final List<Object> columns;
+        private final Table.ColumnType[] types;
+        private int capacity;
+        private int rowCount;
+        private int[] rowIndices;
+        private final Object[] arrays;
+        private final BitSet[] nulls;
+        private final ArrayList<HashMap<String, Integer>> codesByString;
+        private final ArrayList<ArrayList<String>> dictionaries;
+
+        /**
+         * @param capacity The initial number of rows. Arrays grow when more rows are added.
+         */
+        Builder(Table table, int capacity) {
+            this.columns = table.getColumns();
+            this.capacity = capacity;
+            this.types = new Table.ColumnType[columns.size()];
+            this.rowIndices = new int[capacity];
+            this.arrays = new Object[columns.size()];
+            this.nulls = new BitSet[columns.size()];
+            this.codesByString = new ArrayList<>(columns.size());
+            this.dictionaries = new ArrayList<>(columns.size());
+
+            for (int i = 0; i < columns.size(); i++) {
+                Table.ColumnType type = table.getColumnType(columns.get(i).toString());
+                types[i] = type;
+                nulls[i] = new BitSet();
+
+                switch (type) {
+                    case INT:
+                        arrays[i] = new int[capacity];
+                        break;
+                    case LONG:
+                        arrays[i] = new long[capacity];
+                        break;
+                    case DOUBLE:
+                        arrays[i] = new double[capacity];
+                        break;
+                    default:
+                        arrays[i] = new int[capacity];
+                        break;
+                }
+
+                codesByString.add(type == Table.ColumnType.STRING ? new HashMap<String, Integer>() : null);
+                dictionaries.add(type == Table.ColumnType.STRING ? new ArrayList<String>() : null);
+            }
+        }
+
+        /**
+         * @param rowData Values of a row as a query reads them.
+         * @throws NumberFormatException If a value of a numeric column is not a number.
+         */
+        void add(int rowIndex, List<Object> rowData) {
+            if (rowCount >= capacity) {
+                grow();
+            }
+
+            int row = rowCount++;
+            rowIndices[row] = rowIndex;
+
+            for (int i = 0; i < types.length; i++) {
+                Object value = i < rowData.size() ? rowData.get(i) : null;
+                boolean isNull = value == null || "".equals(value);
+
+                if (isNull) {
+                    nulls[i].set(row);
+                }
+
+                switch (types[i]) {
+                    case INT:
+                        if (!isNull) {
+                            ((int[]) arrays[i])[row] = value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+                        }
+                        break;
+                    case LONG:
+                        if (!isNull) {
+                            ((long[]) arrays[i])[row] = value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+                        }
+                        break;
+                    case DOUBLE:
+                        if (!isNull) {
+                            ((double[]) arrays[i])[row] = value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+                        }
+                        break;
+                    default:
+                        ((int[]) arrays[i])[row] = isNull ? -1 : encode(i, value.toString());
+                        break;
+                }
+            }
+        }
+
+        ColumnBatch build() {
+            Object[] columnArrays = new Object[arrays.length];
+
+            for (int i = 0; i < arrays.length; i++) {
+                switch (types[i]) {
+                    case INT:
+                        columnArrays[i] = trim((int[]) arrays[i]);
+                        break;
+                    case LONG:
+                        long[] longs = (long[]) arrays[i];
+                        columnArrays[i] = longs.length == rowCount ? longs : Arrays.copyOf(longs, rowCount);
+                        break;
+                    case DOUBLE:
+                        double[] doubles = (double[]) arrays[i];
+                        columnArrays[i] = doubles.length == rowCount ? doubles : Arrays.copyOf(doubles, rowCount);
+                        break;
+                    default:
+                        ArrayList<String> dictionary = dictionaries.get(i);
+                        columnArrays[i] = new StringColumn(dictionary.toArray(new String[dictionary.size()]), trim((int[]) arrays[i]));
+                        break;
+                }
+            }
+
+            return new ColumnBatch(columns, types, rowCount, trim(rowIndices), columnArrays, nulls);
+        }
+
+        private void grow() {
+            capacity = Math.max(16, capacity * 2);
+            rowIndices = Arrays.copyOf(rowIndices, capacity);
+
+            for (int i = 0; i < arrays.length; i++) {
+                switch (types[i]) {
+                    case LONG:
+                        arrays[i] = Arrays.copyOf((long[]) arrays[i], capacity);
+                        break;
+                    case DOUBLE:
+                        arrays[i] = Arrays.copyOf((double[]) arrays[i], capacity);
+                        break;
+                    default:
+                        arrays[i] = Arrays.copyOf((int[]) arrays[i], capacity);
+                        break;
+                }
+            }
+        }
+
+        private int encode(int columnIndex, String value) {
+            HashMap<String, Integer> codes = codesByString.get(columnIndex);
+            Integer code = codes.get(value);
+
+            if (code == null) {
+                ArrayList<String> dictionary = dictionaries.get(columnIndex);
+                code = dictionary.size();
+                dictionary.add(value);
+                codes.put(value, code);
+            }
+
+            return code;
+        }
+
+        private int[] trim(int[] array) {
+            return array.length == rowCount ? array : Arrays.copyOf(array, rowCount);
+        }
+    }
+}
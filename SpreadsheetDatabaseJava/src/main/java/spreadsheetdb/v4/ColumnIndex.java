@@ -0,0 +1,368 @@
+package spreadsheetdb.v4;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * A secondary index of a column. It maps values of the column to row indices.
+ * The index is built from a single column read when it is used first, and follows updates and deletes of rows
+ * made by `BatchUpdateRequest` and `BatchDeleteRequest`. Inserts discard the index, because a column read drops
+ * trailing empty cells, so that the index cannot tell the row an inserted record is appended to.
+ */
+public class ColumnIndex {
+
+    public enum Type {
+        /**
+         * Supports `QueryRequest.findBy`.
+         */
+        HASH,
+        /**
+         * Supports `QueryRequest.findBy` and `QueryRequest.range`.
+         */
+        SORTED
+    }
+
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("-?\\d+(\\.\\d+)?([eE][-+]?\\d+)?");
+
+    /**
+     * Numbers come before strings. Numbers are compared by their values and strings are compared lexicographically.
+     */
+    static final Comparator<Object> KEY_COMPARATOR = new Comparator<Object>() {
+
+        @Override
+        public int compare(Object key1, Object key2) {
+            boolean isNumber1 = key1 instanceof BigDecimal;
+            boolean isNumber2 = key2 instanceof BigDecimal;
+
+            if (isNumber1 && isNumber2) {
+                return ((BigDecimal) key1).compareTo((BigDecimal) key2);
+            }
+
+            if (isNumber1 != isNumber2) {
+                return isNumber1 ? -1 : 1;
+            }
+
+            return key1.toString().compareTo(key2.toString());
+        }
+    };
+
+    private final String column;
+    private final int columnIndex;
+    private final Type type;
+
+    /**
+     * Keys by row. `keys.get(rowIndex - 1)` is the key of the row. `null` if the index is not built.
+     */
+    private ArrayList<Object> keys;
+    private Map<Object, List<Integer>> rowIndicesByKey;
+    /**
+     * Counts of keys appended by requests which are queued but not written yet. They survive rebuilds of the index.
+     */
+    private final HashMap<Object, Integer> reservedKeys = new HashMap<>();
+
+    ColumnIndex(String column, int columnIndex, Type type) {
+        this.column = column;
+        this.columnIndex = columnIndex;
+        this.type = type;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public synchronized boolean isBuilt() {
+        return keys != null;
+    }
+
+    /**
+     * @return The number of rows counted by the index.
+     */
+    public synchronized int getRowCount() {
+        return keys != null ? keys.size() : 0;
+    }
+
+    /**
+     * @param columnValues Values of the column from the first data row. An element is a row.
+     */
+    synchronized void build(List<List<Object>> columnValues) {
+        keys = new ArrayList<>(columnValues != null ? columnValues.size() : 0);
+
+        if (columnValues != null) {
+            for (List<Object> rowData : columnValues) {
+                keys.add(rowData.isEmpty() ? null : key(rowData.get(0)));
+            }
+        }
+
+        rebuildMap();
+    }
+
+    /**
+     * @return Row indices in ascending order whose value equals given value.
+     */
+    synchronized List<Integer> find(Object value) {
+        List<Integer> rowIndices = rowIndicesByKey.get(key(value));
+
+        return rowIndices != null ? new ArrayList<>(rowIndices) : new ArrayList<Integer>();
+    }
+
+    /**
+     * @return Row indices in the order of values whose value is between `from` and `to` inclusive.
+     * If `from` or `to` is `null`, the range is not bounded by it.
+     */
+    synchronized List<Integer> range(Object from, Object to) {
+        if (type != Type.SORTED) {
+            throw new IllegalStateException("The index of `" + column + "` is not sorted.");
+        }
+
+        TreeMap<Object, List<Integer>> sortedMap = (TreeMap<Object, List<Integer>>) rowIndicesByKey;
+        Map<Object, List<Integer>> subMap;
+        Object fromKey = key(from);
+        Object toKey = key(to);
+
+        if (fromKey != null && toKey != null) {
+            subMap = sortedMap.subMap(fromKey, true, toKey, true);
+        } else if (fromKey != null) {
+            subMap = sortedMap.tailMap(fromKey, true);
+        } else if (toKey != null) {
+            subMap = sortedMap.headMap(toKey, true);
+        } else {
+            subMap = sortedMap;
+        }
+
+        return collectRowIndices(subMap.values());
+    }
+
+    synchronized void reserve(Collection<Object> keys) {
+        for (Object key : keys) {
+            Integer count = reservedKeys.get(key);
+            reservedKeys.put(key, count != null ? count + 1 : 1);
+        }
+    }
+
+    synchronized void release(Collection<Object> keys) {
+        for (Object key : keys) {
+            Integer count = reservedKeys.get(key);
+
+            if (count != null && count > 1) {
+                reservedKeys.put(key, count - 1);
+            } else {
+                reservedKeys.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return true if any of given keys is reserved.
+     */
+    synchronized boolean isReserved(Collection<Object> keys) {
+        for (Object key : keys) {
+            if (reservedKeys.containsKey(key)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    synchronized void onUpdated(List<Record> records) {
+        if (keys == null) {
+            return;
+        }
+
+        for (Record record : records) {
+            int rowIndex = record.getRowIndex();
+
+            if (rowIndex < 1) {
+                continue;
+            }
+
+            while (keys.size() < rowIndex) {
+                keys.add(null);
+            }
+
+            Object oldKey = keys.get(rowIndex - 1);
+            Object newKey = keyOf(record);
+
+            if (oldKey != null) {
+                List<Integer> rowIndices = rowIndicesByKey.get(oldKey);
+                rowIndices.remove(Integer.valueOf(rowIndex));
+
+                if (rowIndices.isEmpty()) {
+                    rowIndicesByKey.remove(oldKey);
+                }
+            }
+
+            keys.set(rowIndex - 1, newKey);
+            addRowIndex(newKey, rowIndex);
+        }
+    }
+
+    /**
+     * @param rowIndices Deleted row indices in descending order.
+     */
+    synchronized void onDeleted(List<Integer> rowIndices) {
+        if (keys == null) {
+            return;
+        }
+
+        // Following rows are shifted by removing rows from the last.
+        for (Integer rowIndex : rowIndices) {
+            if (rowIndex >= 1 && rowIndex <= keys.size()) {
+                keys.remove(rowIndex - 1);
+            }
+        }
+
+        rebuildMap();
+    }
+
+    /**
+     * Rows are marked as deleted but not removed, so following rows are not shifted.
+     */
+    synchronized void onCleared(List<Integer> rowIndices) {
+        if (keys == null) {
+            return;
+        }
+
+        for (Integer rowIndex : rowIndices) {
+            if (rowIndex >= 1 && rowIndex <= keys.size()) {
+                Object key = keys.set(rowIndex - 1, null);
+
+                if (key != null) {
+                    List<Integer> keyRowIndices = rowIndicesByKey.get(key);
+                    keyRowIndices.remove(rowIndex);
+
+                    if (keyRowIndices.isEmpty()) {
+                        rowIndicesByKey.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        keys = new ArrayList<>();
+        rebuildMap();
+    }
+
+    /**
+     * Discards the index. It is built again when it is used next.
+     */
+    synchronized void invalidate() {
+        keys = null;
+        rowIndicesByKey = null;
+    }
+
+    boolean matches(Record record, Object value) {
+        Object key = keyOf(record);
+
+        return key != null && key.equals(key(value));
+    }
+
+    boolean isInRange(Record record, Object from, Object to) {
+        Object key = keyOf(record);
+        Object fromKey = key(from);
+        Object toKey = key(to);
+
+        return key != null
+                && (fromKey == null || KEY_COMPARATOR.compare(key, fromKey) >= 0)
+                && (toKey == null || KEY_COMPARATOR.compare(key, toKey) <= 0);
+    }
+
+    private Object keyOf(Record record) {
+        List<Object> values = record.getValues();
+
+        return values != null && columnIndex < values.size() ? key(values.get(columnIndex)) : null;
+    }
+
+    private void addRowIndex(Object key, int rowIndex) {
+        if (key == null) {
+            return;
+        }
+
+        List<Integer> rowIndices = rowIndicesByKey.get(key);
+
+        if (rowIndices == null) {
+            rowIndices = new ArrayList<>(1);
+            rowIndicesByKey.put(key, rowIndices);
+        }
+
+        // Keeps ascending order.
+        int position = Collections.binarySearch(rowIndices, rowIndex);
+
+        if (position < 0) {
+            rowIndices.add(-position - 1, rowIndex);
+        }
+    }
+
+    private void rebuildMap() {
+        rowIndicesByKey = type == Type.SORTED
+                ? new TreeMap<Object, List<Integer>>(KEY_COMPARATOR)
+                : new HashMap<Object, List<Integer>>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            addRowIndex(keys.get(i), i + 1);
+        }
+    }
+
+    /**
+     * Normalizes a cell value so that a number and its string representation are the same key.
+     *
+     * @return A key, or `null` if the value is empty.
+     */
+    static Object key(Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).stripTrailingZeros();
+        }
+
+        if (value instanceof Number) {
+            try {
+                return new BigDecimal(value.toString()).stripTrailingZeros();
+            } catch (NumberFormatException e) {
+                // NaN or Infinity
+                return value.toString();
+            }
+        }
+
+        String string = value.toString();
+
+        if (string.isEmpty()) {
+            return null;
+        }
+
+        if (NUMBER_PATTERN.matcher(string).matches()) {
+            return new BigDecimal(string).stripTrailingZeros();
+        }
+
+        return string;
+    }
+
+    private static List<Integer> collectRowIndices(Collection<List<Integer>> values) {
+        ArrayList<Integer> rowIndices = new ArrayList<>();
+
+        for (List<Integer> value : values) {
+            rowIndices.addAll(value);
+        }
+
+        return rowIndices;
+    }
+}
@@ -0,0 +1,313 @@
+package spreadsheetdb.v4;
+
+import com.google.api.services.sheets.v4.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Deletes rows marked with tombstones in tables of the soft-delete mode. Contiguous marked rows are deleted by a range.
+ * A scheduled compaction skips a table called in last `quietMillis` or locked by other requests,
+ * and a table that has fewer tombstones than `minTombstones`.
+ *
+ * @see Table#setSoftDeleteEnabled(boolean)
+ * @see SpreadsheetDatabase#enableCompaction(long, long, int)
+ */
+public class Compactor {
+
+    /**
+     * Statistics of compactions.
+     */
+    public static class Stats {
+
+        private final long runCount;
+        private final long compactionCount;
+        private final long skipCount;
+        private final long failureCount;
+        private final long deletedRowCount;
+        private final long lastCompactedAtMillis;
+        private final long lastDurationMillis;
+
+        Stats(long runCount, long compactionCount, long skipCount, long failureCount,
+              long deletedRowCount, long lastCompactedAtMillis, long lastDurationMillis) {
+
+            this.runCount = runCount;
+            this.compactionCount = compactionCount;
+            this.skipCount = skipCount;
+            this.failureCount = failureCount;
+            this.deletedRowCount = deletedRowCount;
+            this.lastCompactedAtMillis = lastCompactedAtMillis;
+            this.lastDurationMillis = lastDurationMillis;
+        }
+
+        /**
+         * @return The number of scheduled runs.
+         */
+        public long getRunCount() {
+            return runCount;
+        }
+
+        /**
+         * @return The number of compactions of a table that deleted rows.
+         */
+        public long getCompactionCount() {
+            return compactionCount;
+        }
+
+        /**
+         * @return The number of tables skipped because they are not quiet.
+         */
+        public long getSkipCount() {
+            return skipCount;
+        }
+
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        public long getDeletedRowCount() {
+            return deletedRowCount;
+        }
+
+        /**
+         * @return The time of the last compaction that deleted rows, or 0.
+         */
+        public long getLastCompactedAtMillis() {
+            return lastCompactedAtMillis;
+        }
+
+        public long getLastDurationMillis() {
+            return lastDurationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "runCount=" + runCount +
+                    ", compactionCount=" + compactionCount +
+                    ", skipCount=" + skipCount +
+                    ", failureCount=" + failureCount +
+                    ", deletedRowCount=" + deletedRowCount +
+                    ", lastCompactedAtMillis=" + lastCompactedAtMillis +
+                    ", lastDurationMillis=" + lastDurationMillis +
+                    '}';
+        }
+    }
+
+    static final int DEFAULT_MAX_RANGES_PER_REQUEST = BatchDeleteRequest.DEFAULT_MAX_RANGES_PER_REQUEST;
+
+    private final SpreadsheetHandler spreadsheetHandler;
+    private final Collection<Table> tables;
+    private final long quietMillis;
+    private final int minTombstones;
+    private final ScheduledExecutorService scheduler;
+    private long runCount;
+    private long compactionCount;
+    private long skipCount;
+    private long failureCount;
+    private long deletedRowCount;
+    private long lastCompactedAtMillis;
+    private long lastDurationMillis;
+    private volatile IOException lastFailure;
+
+    /**
+     * @param tables Tables of the database. Tables of the soft-delete mode are compacted.
+     */
+    Compactor(SpreadsheetHandler spreadsheetHandler, Collection<Table> tables, long intervalMillis, long quietMillis, int minTombstones) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("`intervalMillis` must be 1 or more.");
+        }
+
+        if (minTombstones < 1) {
+            throw new IllegalArgumentException("`minTombstones` must be 1 or more.");
+        }
+
+        this.spreadsheetHandler = spreadsheetHandler;
+        this.tables = tables;
+        this.quietMillis = quietMillis;
+        this.minTombstones = minTombstones;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "spreadsheetdb-compactor");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                runScheduled();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(runCount, compactionCount, skipCount, failureCount, deletedRowCount, lastCompactedAtMillis, lastDurationMillis);
+    }
+
+    /**
+     * @return The failure of the last failed compaction, or `null`.
+     */
+    public IOException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Deletes rows marked with tombstones in given table now, waiting for other requests on the table.
+     *
+     * @return The number of deleted rows.
+     */
+    public int compact(Table table) throws IOException {
+        spreadsheetHandler.flushWriteBehind(table.getName());
+
+        Lock lock = spreadsheetHandler.getTableLocks().forTable(table.getName()).writeLock();
+        lock.lock();
+
+        try {
+            return compactLocked(table, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void runScheduled() {
+        synchronized (this) {
+            runCount++;
+        }
+
+        for (Table table : tables) {
+            if (!table.isSoftDeleteEnabled()) {
+                continue;
+            }
+
+            Lock lock = spreadsheetHandler.getTableLocks().forTable(table.getName()).writeLock();
+
+            if (System.currentTimeMillis() - spreadsheetHandler.getLastAccessMillis(table.getName()) < quietMillis) {
+                synchronized (this) {
+                    skipCount++;
+                }
+
+                continue;
+            }
+
+            try {
+                spreadsheetHandler.flushWriteBehind(table.getName());
+            } catch (IOException | RuntimeException e) {
+                // Retried by the next run.
+                synchronized (this) {
+                    failureCount++;
+                }
+
+                lastFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+                continue;
+            }
+
+            if (!lock.tryLock()) {
+                synchronized (this) {
+                    skipCount++;
+                }
+
+                continue;
+            }
+
+            try {
+                compactLocked(table, minTombstones);
+            } catch (IOException | RuntimeException e) {
+                // Retried by the next run.
+                synchronized (this) {
+                    failureCount++;
+                }
+
+                lastFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Called in the write lock of the table.
+     *
+     * @return The number of deleted rows.
+     */
+    private int compactLocked(Table table, int minTombstones) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        Integer sheetId = spreadsheetHandler.getSheetId(table.getName());
+
+        if (sheetId == null || !table.isSoftDeleteEnabled()) {
+            return 0;
+        }
+
+        List<Integer> rowIndices = readTombstones(table);
+
+        if (rowIndices.size() < minTombstones) {
+            return 0;
+        }
+
+        BatchDeleteRequest.execute(spreadsheetHandler, table, BatchDeleteRequest.buildRequests(sheetId, rowIndices), DEFAULT_MAX_RANGES_PER_REQUEST);
+        table.onRowsDeleted(rowIndices);
+
+        long endMillis = System.currentTimeMillis();
+
+        synchronized (this) {
+            compactionCount++;
+            deletedRowCount += rowIndices.size();
+            lastCompactedAtMillis = endMillis;
+            lastDurationMillis = endMillis - startMillis;
+        }
+
+        return rowIndices.size();
+    }
+
+    /**
+     * Reads the tombstone column only.
+     *
+     * @return Row indices of marked rows in descending order.
+     */
+    private List<Integer> readTombstones(Table table) throws IOException {
+        String column = Table.Grid.columnA1Notation(table.getTombstoneColumnIndex() + 1);
+
+        ValueRange response = spreadsheetHandler.execute(spreadsheetHandler.getService()
+                .spreadsheets()
+                .values()
+                .get(spreadsheetHandler.getSpreadsheetId(), Table.Grid.range(table.getName(), column + "2:" + column))
+                .setValueRenderOption(QueryRequest.VALUE_RENDER_OPTION), Operation.QUERY, table.getName());
+
+        ArrayList<Integer> rowIndices = new ArrayList<>();
+        List<List<Object>> values = response.getValues();
+
+        if (values == null) {
+            return rowIndices;
+        }
+
+        for (int i = 0; i < values.size(); i++) {
+            List<Object> cell = values.get(i);
+
+            if (!cell.isEmpty() && Boolean.TRUE.equals(cell.get(0))) {
+                // The first row is header.
+                rowIndices.add(i + 1);
+            }
+        }
+
+        Collections.reverse(rowIndices);
+
+        return rowIndices;
+    }
+}
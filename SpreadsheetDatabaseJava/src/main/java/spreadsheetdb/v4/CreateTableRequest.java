@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class CreateTableRequest {
 
@@ -27,13 +28,52 @@ public class CreateTableRequest {
         this.callback = callback;
 
         if (spreadsheetHandler.getSheetId(tableName) == null) {
+            // The sheetId is chosen here so that the header row is written in the same batchUpdate.
+            int sheetId = spreadsheetHandler.getSheetRegistry().newSheetId();
+
             requests.add(new Request()
                     .setAddSheet(new AddSheetRequest()
                             .setProperties(new SheetProperties()
+                                    .setSheetId(sheetId)
                                     .setTitle(tableName))));
+
+            // Insert header row
+            ArrayList<CellData> cells = new ArrayList<>(columns.size());
+
+            for (Object column : columns) {
+                cells.add(new CellData()
+                        .setUserEnteredValue(BatchUpdateRequest.toExtendedValue(column)));
+            }
+
+            requests.add(new Request()
+                    .setUpdateCells(new UpdateCellsRequest()
+                            .setRange(new GridRange()
+                                    .setSheetId(sheetId)
+                                    .setStartRowIndex(0)
+                                    .setEndRowIndex(1)
+                                    .setStartColumnIndex(0)
+                                    .setEndColumnIndex(columns.size()))
+                            .setFields("*")
+                            .setRows(Collections.singletonList(new RowData()
+                                    .setValues(cells)))));
         }
     }
 
+    /**
+     * Executes the request on the executor of the database.
+     */
+    public CompletableFuture<Void> executeAsync() {
+        return spreadsheetHandler.executeAsync(new SpreadsheetHandler.Task<Void>() {
+
+            @Override
+            public Void execute() throws IOException {
+                CreateTableRequest.this.execute();
+
+                return null;
+            }
+        });
+    }
+
     public void execute() throws IOException {
         if (requests.isEmpty()) {
             return;
@@ -42,22 +82,10 @@ public class CreateTableRequest {
         BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
                 .setRequests(requests);
 
-        BatchUpdateSpreadsheetResponse response = spreadsheetHandler.getService()
-                .spreadsheets()
-                .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request)
-                .execute();
-
-        // Insert header row
-        ValueRange body = new ValueRange()
-                .setValues(Collections.singletonList(columns));
-        String range = tableName + "!A1:" + Table.Grid.columnA1Notation(columns.size()) + "1";
-
-        UpdateValuesResponse valuesResponse = spreadsheetHandler.getService()
+        // The sheet registry of the handler is updated by the AddSheet reply.
+        BatchUpdateSpreadsheetResponse response = spreadsheetHandler.execute(spreadsheetHandler.getService()
                 .spreadsheets()
-                .values()
-                .update(spreadsheetHandler.getSpreadsheetId(), range, body)
-                .setValueInputOption(SpreadsheetHandler.ValueInputOption.RAW)
-                .execute();
+                .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request), Operation.CREATE_TABLE, tableName);
 
         if (callback != null) {
             callback.onExecuted();
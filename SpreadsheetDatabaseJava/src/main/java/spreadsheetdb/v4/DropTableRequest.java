@@ -7,6 +7,8 @@ import com.google.api.services.sheets.v4.model.Request;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
 
 public class DropTableRequest {
 
@@ -34,21 +36,44 @@ public class DropTableRequest {
         }
     }
 
+    /**
+     * Executes the request on the executor of the database.
+     */
+    public CompletableFuture<Void> executeAsync() {
+        return spreadsheetHandler.executeAsync(new SpreadsheetHandler.Task<Void>() {
+
+            @Override
+            public Void execute() throws IOException {
+                DropTableRequest.this.execute();
+
+                return null;
+            }
+        });
+    }
+
     public void execute() throws IOException {
-        if (requests.isEmpty()) {
-            return;
-        }
+        spreadsheetHandler.flushWriteBehind(tableName);
+
+        Lock lock = spreadsheetHandler.getTableLocks().forTable(tableName).writeLock();
+        lock.lock();
+
+        try {
+            if (requests.isEmpty()) {
+                return;
+            }
 
-        BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
-                .setRequests(requests);
+            BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
+                    .setRequests(requests);
 
-        BatchUpdateSpreadsheetResponse response = spreadsheetHandler.getService()
-                .spreadsheets()
-                .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request)
-                .execute();
+            BatchUpdateSpreadsheetResponse response = spreadsheetHandler.execute(spreadsheetHandler.getService()
+                    .spreadsheets()
+                    .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request), Operation.DROP_TABLE, tableName);
 
-        if (callback != null) {
-            callback.onExecuted();
+            if (callback != null) {
+                callback.onExecuted();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 }
@@ -0,0 +1,230 @@
+package spreadsheetdb.v4;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The default `MetricsListener` that aggregates metrics by operation and table, and exposes them as an MXBean
+ * named `spreadsheetdb.v4:type=Metrics,name="database name"`.
+ */
+public class JmxMetricsListener implements MetricsListener, SpreadsheetMetricsMXBean {
+
+    /**
+     * Latency histogram whose buckets are powers of 2 in microseconds.
+     */
+    private static class Stats {
+
+        private static final int BUCKET_COUNT = 40;
+
+        final long[] buckets = new long[BUCKET_COUNT];
+        long count;
+        long errorCount;
+        long retryCount;
+        long totalNanos;
+        long maxNanos;
+        long bytesSent;
+        long bytesReceived;
+        long cellsSent;
+        long cellsReceived;
+        long rowsReturned;
+
+        synchronized void add(RoundTrip roundTrip) {
+            long nanos = roundTrip.getLatencyNanos();
+            long micros = Math.max(1, nanos / 1000);
+            int bucket = Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(micros));
+
+            buckets[bucket]++;
+            count++;
+            errorCount += roundTrip.getError() != null ? 1 : 0;
+            retryCount += roundTrip.getRetries();
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            bytesSent += roundTrip.getBytesSent();
+            bytesReceived += roundTrip.getBytesReceived();
+            cellsSent += roundTrip.getCellsSent();
+            cellsReceived += roundTrip.getCellsReceived();
+            rowsReturned += roundTrip.getRowsReturned();
+        }
+
+        synchronized OperationMetrics snapshot() {
+            return new OperationMetrics(count,
+                    errorCount,
+                    retryCount,
+                    count > 0 ? totalNanos / (double) count / 1000000 : 0,
+                    maxNanos / 1000000.0,
+                    percentileMillis(0.50),
+                    percentileMillis(0.95),
+                    percentileMillis(0.99),
+                    bytesSent,
+                    bytesReceived,
+                    cellsSent,
+                    cellsReceived,
+                    rowsReturned);
+        }
+
+        /**
+         * @return The upper bound of the bucket including the percentile, but not over the max latency.
+         */
+        private double percentileMillis(double percentile) {
+            long rank = (long) Math.ceil(count * percentile);
+            long seen = 0;
+
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+
+                if (seen >= rank && seen > 0) {
+                    return Math.min((1L << (i + 1)) / 1000.0, maxNanos / 1000000.0);
+                }
+            }
+
+            return 0;
+        }
+    }
+
+    private static final String TABLE_NAME_NONE = "*";
+
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+    private volatile long startupMillis;
+
+    @Override
+    public void onRoundTrip(RoundTrip roundTrip) {
+        String tableName = roundTrip.getTableName() != null ? roundTrip.getTableName() : TABLE_NAME_NONE;
+        String key = roundTrip.getOperation().name().toLowerCase() + "/" + tableName;
+        Stats value = stats.get(key);
+
+        if (value == null) {
+            Stats newValue = new Stats();
+            value = stats.putIfAbsent(key, newValue);
+
+            if (value == null) {
+                value = newValue;
+            }
+        }
+
+        value.add(roundTrip);
+    }
+
+    @Override
+    public Map<String, OperationMetrics> getOperations() {
+        TreeMap<String, OperationMetrics> operations = new TreeMap<>();
+
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            operations.put(entry.getKey(), entry.getValue().snapshot());
+        }
+
+        return operations;
+    }
+
+    @Override
+    public long getRoundTripCount() {
+        long count = 0;
+
+        for (OperationMetrics metrics : getOperations().values()) {
+            count += metrics.getCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getErrorCount() {
+        long count = 0;
+
+        for (OperationMetrics metrics : getOperations().values()) {
+            count += metrics.getErrorCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getRetryCount() {
+        long count = 0;
+
+        for (OperationMetrics metrics : getOperations().values()) {
+            count += metrics.getRetryCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getBytesSent() {
+        long bytes = 0;
+
+        for (OperationMetrics metrics : getOperations().values()) {
+            bytes += metrics.getBytesSent();
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public long getBytesReceived() {
+        long bytes = 0;
+
+        for (OperationMetrics metrics : getOperations().values()) {
+            bytes += metrics.getBytesReceived();
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+
+    void setStartupMillis(long startupMillis) {
+        this.startupMillis = startupMillis;
+    }
+
+    @Override
+    public void reset() {
+        stats.clear();
+    }
+
+    /**
+     * Registers this listener to the platform MBean server.
+     *
+     * @throws IllegalStateException If the registration fails.
+     */
+    synchronized void register(String databaseName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("spreadsheetdb.v4:type=Metrics,name=" + ObjectName.quote(databaseName));
+
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register metrics MBean.", e);
+        }
+    }
+
+    /**
+     * Unregisters this listener from the platform MBean server.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // Already unregistered.
+        }
+
+        objectName = null;
+    }
+}
@@ -1,20 +1,34 @@
 package spreadsheetdb.v4;
 
+import com.google.api.services.sheets.v4.model.ValueRange;
+
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 public class Metadata extends Table {
 
-    private static final String TABLE_NAME = "#meta";
+    static final String TABLE_NAME = "#meta";
     private static final String COLUMN_NAME_KEY = "key";
     private static final String COLUMN_NAME_VALUE = "value";
+    /**
+     * Keys of rows 1 to 3.
+     */
+    private static final List<Object> KEYS = Arrays.<Object>asList("applicationName", "description", "schemaVersion");
+    /**
+     * Rows from it are keyed rows appended by `findOrAppend`, e.g.) versions of tables.
+     */
+    static final int FIRST_FREE_ROW_INDEX = KEYS.size() + 1;
 
     private final String applicationName;
     private final SpreadsheetHandler spreadsheetHandler;
     private String description;
     private int schemaVersion = 1;
 
+    /**
+     * Creates the meta table if it is not found. Values are set by `load`.
+     */
     static Metadata newInstance(boolean createDb,
                                 String applicationName,
                                 SpreadsheetHandler spreadsheetHandler,
@@ -34,14 +48,6 @@ public class Metadata extends Table {
             }
         }
 
-        List<Record> records = new QueryRequest(metadata, spreadsheetHandler).all().execute();
-
-        try {
-            metadata.setDescription(records.get(1).getString(metadata.getColumnIndex(COLUMN_NAME_VALUE)));
-            metadata.setSchemaVersion(records.get(2).getInt(metadata.getColumnIndex(COLUMN_NAME_VALUE)));
-        } catch (Exception e) {
-        }
-
         return metadata;
     }
 
@@ -61,6 +67,17 @@ public class Metadata extends Table {
         this.schemaVersion = metadata.schemaVersion;
     }
 
+    /**
+     * @param records Records of the meta table read by `QueryRequest.all()`.
+     */
+    void load(List<Record> records) {
+        try {
+            setDescription(records.get(1).getString(getColumnIndex(COLUMN_NAME_VALUE)));
+            setSchemaVersion(records.get(2).getInt(getColumnIndex(COLUMN_NAME_VALUE)));
+        } catch (Exception e) {
+        }
+    }
+
     public String getApplicationName() {
         return applicationName;
     }
@@ -88,8 +105,81 @@ public class Metadata extends Table {
     BatchUpdateRequest updateRequest() {
         return new BatchUpdateRequest(this, spreadsheetHandler)
                 .update(new Record(0, getColumns()))
-                .update(new Record(1, Arrays.asList("applicationName", applicationName)))
-                .update(new Record(2, Arrays.asList("description", description)))
-                .update(new Record(3, Arrays.asList("schemaVersion", schemaVersion)));
+                .update(new Record(1, Arrays.asList(KEYS.get(0), applicationName)))
+                .update(new Record(2, Arrays.asList(KEYS.get(1), description)))
+                .update(new Record(3, Arrays.asList(KEYS.get(2), schemaVersion)));
+    }
+
+    /**
+     * Finds the first row of given key after rows of the metadata, or appends a row of given key and value.
+     * Rows of a key appended by several processes at once are resolved to the first row, so that they use the same row.
+     *
+     * @return A record of the row. Its values are the key and the value.
+     */
+    Record findOrAppend(String key, Object value) throws IOException {
+        List<List<Object>> values = readKeysAndValues();
+        Record record = find(values, key);
+
+        if (record != null) {
+            return record;
+        }
+
+        BatchUpdateRequest request = new BatchUpdateRequest(this, spreadsheetHandler);
+
+        if (values.size() < FIRST_FREE_ROW_INDEX) {
+            // Writes keys of rows of the metadata, so that the row is appended after them. Their values are kept.
+            for (int i = 0; i < KEYS.size(); i++) {
+                Record keyRecord = new Record(i + 1);
+                keyRecord.set(0, KEYS.get(i));
+                request.update(keyRecord);
+            }
+        }
+
+        request.insert(new Record(Arrays.asList(key, value)))
+                .execute();
+
+        record = find(readKeysAndValues(), key);
+
+        if (record == null) {
+            throw new IOException("The row of `" + key + "` is not found in the meta table.");
+        }
+
+        return record;
+    }
+
+    /**
+     * @return A request writing the value of the row of given index, keeping its key.
+     */
+    BatchUpdateRequest valueRequest(int rowIndex, Object value) {
+        Record record = new Record(rowIndex);
+        record.set(getColumnIndex(COLUMN_NAME_VALUE), value);
+
+        return new BatchUpdateRequest(this, spreadsheetHandler)
+                .update(record);
+    }
+
+    /**
+     * @return Keys and values of the meta table by row. The first element is the header row.
+     */
+    List<List<Object>> readKeysAndValues() throws IOException {
+        ValueRange response = spreadsheetHandler.execute(spreadsheetHandler.getService()
+                .spreadsheets()
+                .values()
+                .get(spreadsheetHandler.getSpreadsheetId(), Table.Grid.range(TABLE_NAME, "A:B"))
+                .setValueRenderOption(QueryRequest.VALUE_RENDER_OPTION), Operation.QUERY, TABLE_NAME);
+
+        return response.getValues() != null ? response.getValues() : new ArrayList<List<Object>>();
+    }
+
+    private static Record find(List<List<Object>> values, String key) {
+        for (int i = FIRST_FREE_ROW_INDEX; i < values.size(); i++) {
+            List<Object> rowData = values.get(i);
+
+            if (!rowData.isEmpty() && key.equals(rowData.get(0))) {
+                return new Record(i, Arrays.asList(rowData.get(0), rowData.size() > 1 ? rowData.get(1) : ""));
+            }
+        }
+
+        return null;
     }
 }
@@ -0,0 +1,16 @@
+package spreadsheetdb.v4;
+
+/**
+ * Receives metrics of every call of the Sheets API.
+ *
+ * @see SpreadsheetDatabase#setMetricsListener(MetricsListener)
+ * @see JmxMetricsListener
+ */
+public interface MetricsListener {
+
+    /**
+     * Called on the thread that made the call, after the call is completed or failed.
+     * The implementation should return quickly.
+     */
+    void onRoundTrip(RoundTrip roundTrip);
+}
@@ -3,25 +3,53 @@ package spreadsheetdb.v4;
 import com.google.api.services.sheets.v4.model.*;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.Lock;
 
+/**
+ * Migrates a table in place, page by page. Each page is rewritten in a batchUpdate call together with a checkpoint
+ * in the row of the table in the meta table, so that an interrupted migration is resumed from the page after
+ * the checkpoint by executing the same migration again. The header row and the schema version are written by the last call.
+ */
 public class MigrateRequest extends BatchUpdateRequest {
 
     public interface MigrationListener {
 
+        /**
+         * Called for each page of the table. Pages may be migrated on several threads at once.
+         *
+         * @param oldRecords Records of a page.
+         * @return New records. A record is written to its row index. Rows of the page not returned are cleared.
+         * If columns are only added, only values of added columns are written.
+         */
         List<Record> onMigrate(Table table, List<Object> newColumns, List<Record> oldRecords);
     }
 
+    static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final String CHECKPOINT_KEY_PREFIX = "migrationCheckpoint:";
+
     interface Callback {
 
         void onExecuted();
     }
 
     private final List<Object> newColumns;
-    private final BatchUpdateRequest metadataUpdateRequest;
+    private final Metadata newMetadata;
     private final Callback callback;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    /**
+     * The row of the checkpoint of the table in the meta table, or -1 if it is not read.
+     */
+    private int checkpointRowIndex = -1;
 
-    MigrateRequest(BatchUpdateRequest metadataUpdateRequest,
+    MigrateRequest(Metadata newMetadata,
                    Table table,
                    List<Object> newColumns,
                    SpreadsheetHandler spreadsheetHandler,
@@ -30,10 +58,33 @@ public class MigrateRequest extends BatchUpdateRequest {
         super(table, spreadsheetHandler);
 
         this.newColumns = newColumns;
-        this.metadataUpdateRequest = metadataUpdateRequest;
+        this.newMetadata = newMetadata;
         this.callback = callback;
     }
 
+    /**
+     * Sets the number of rows read, migrated and written by a batchUpdate call.
+     */
+    public MigrateRequest setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("`pageSize` must be 1 or more.");
+        }
+
+        this.pageSize = pageSize;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of pages migrated by `MigrationListener` at once. Pages are written in order.
+     */
+    @Override
+    public MigrateRequest setParallelism(int parallelism) {
+        super.setParallelism(parallelism);
+
+        return this;
+    }
+
     @Override
     public MigrateRequest insert(Record record) {
         // No operation.
@@ -50,55 +101,288 @@ public class MigrateRequest extends BatchUpdateRequest {
         return super.update(record);
     }
 
+    @Override
+    Operation operationOf(List<Request> chunk) {
+        return Operation.MIGRATE;
+    }
+
     @Override
     List<Object> getColumns() {
         return newColumns;
     }
 
+    /**
+     * A migration is not queued, because it rewrites the whole table. It is executed asynchronously.
+     */
+    @Override
+    public CompletableFuture<Void> enqueue() {
+        return executeAsync();
+    }
+
     @Override
     public void execute() throws IOException {
         execute(null);
     }
 
+    /**
+     * Executes the migration on the executor of the database.
+     */
+    public CompletableFuture<Void> executeAsync(final MigrationListener migrationListener) {
+        return spreadsheetHandler.executeAsync(new SpreadsheetHandler.Task<Void>() {
+
+            @Override
+            public Void execute() throws IOException {
+                MigrateRequest.this.execute(migrationListener);
+
+                return null;
+            }
+        });
+    }
+
     public void execute(MigrationListener migrationListener) throws IOException {
-        if (sheetId == null) {
-            return;
+        spreadsheetHandler.flushWriteBehind(table.getName());
+
+        Lock lock = spreadsheetHandler.getTableLocks().forTable(table.getName()).writeLock();
+        lock.lock();
+
+        try {
+            if (sheetId == null) {
+                return;
+            }
+
+            try {
+                if (migrationListener != null || !isColumnAddition()) {
+                    migratePages(migrationListener, readCheckpoint());
+                }
+
+                ArrayList<Request> lastRequests = new ArrayList<>();
+
+                // Header row.
+                lastRequests.add(newRowsRequest(0, 0, 0, convertToSingleRowData(newColumns)));
+
+                // Update metadata for schema version.
+                lastRequests.addAll(newMetadata.updateRequest().requests);
+
+                if (checkpointRowIndex >= 0) {
+                    lastRequests.addAll(newMetadata.valueRequest(checkpointRowIndex, "").requests);
+                }
+
+                executeChunk(lastRequests);
+            } finally {
+                table.onRowsRewritten();
+            }
+
+            if (callback != null) {
+                callback.onExecuted();
+            }
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * Reads pages in order up to the last row of the grid, migrates them in parallel, and writes them in order
+     * with the checkpoint. Pages having no values are skipped, because rows after empty rows are migrated too.
+     *
+     * @param startRowIndex The first row index to migrate.
+     */
+    private void migratePages(final MigrationListener migrationListener, int startRowIndex) throws IOException {
+        QueryRequest queryRequest = new QueryRequest(table, spreadsheetHandler);
+        ArrayDeque<Page> pages = new ArrayDeque<>();
+        int parallelism = migrationListener != null ? getParallelism() : 1;
+        int lastRowIndex = spreadsheetHandler.getRowCount(table.getName()) - 1;
+
+        try {
+            while (true) {
+                while (startRowIndex <= lastRowIndex && pages.size() < parallelism) {
+                    int endRowIndex = startRowIndex + pageSize - 1;
+                    final List<Record> oldRecords = queryRequest.fetchWindow(startRowIndex, endRowIndex);
+
+                    if (oldRecords == null) {
+                        startRowIndex = endRowIndex + 1;
+                        continue;
+                    }
+
+                    FutureTask<List<Record>> future = new FutureTask<>(new Callable<List<Record>>() {
+
+                        @Override
+                        public List<Record> call() {
+                            return migrationListener != null ? migrationListener.onMigrate(table, newColumns, oldRecords) : oldRecords;
+                        }
+                    });
+
+                    if (migrationListener != null) {
+                        spreadsheetHandler.getNestedExecutor().execute(future);
+                    } else {
+                        future.run();
+                    }
+
+                    pages.add(new Page(startRowIndex, endRowIndex, oldRecords, future));
+                    startRowIndex = endRowIndex + 1;
+                }
 
-        List<Record> records = new QueryRequest(table, spreadsheetHandler).all().execute();
+                Page page = pages.poll();
 
-        if (migrationListener != null) {
-            records = migrationListener.onMigrate(table, newColumns, records);
+                if (page == null) {
+                    return;
+                }
+
+                writePage(page, page.await());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("The migration is interrupted.");
+        } finally {
+            for (Page page : pages) {
+                page.future.cancel(true);
+            }
+        }
+    }
+
+    private void writePage(Page page, List<Record> newRecords) throws IOException {
+        // The last row of the page that has values. Rows after it are empty and may be out of the grid.
+        int lastRowIndex = page.startRowIndex;
+
+        for (Record record : page.oldRecords) {
+            lastRowIndex = Math.max(lastRowIndex, record.getRowIndex());
         }
 
-        new TruncateRequest(table, spreadsheetHandler).execute();
+        ArrayList<RowData> rows = new ArrayList<>(lastRowIndex - page.startRowIndex + 1);
+        ArrayList<Request> chunk = new ArrayList<>();
+
+        for (int rowIndex = page.startRowIndex; rowIndex <= lastRowIndex; rowIndex++) {
+            rows.add(new RowData());
+        }
+
+        for (Record record : newRecords) {
+            RowData row = convertToSingleRowData(valuesToWrite(record)).get(0);
+
+            if (table.isReplicated()) {
+                Replica.stamp(row, newColumns.size() + 1);
+            }
 
-        // Insert header row.
-        GridRange rowRange = new GridRange()
+            int rowIndex = record.getRowIndex();
+
+            if (rowIndex >= page.startRowIndex && rowIndex <= lastRowIndex) {
+                rows.set(rowIndex - page.startRowIndex, row);
+            } else {
+                ArrayList<RowData> singleRow = new ArrayList<>();
+                singleRow.add(row);
+                chunk.add(newRowsRequest(rowIndex, rowIndex, startColumnIndex(), singleRow));
+            }
+        }
+
+        chunk.add(0, newRowsRequest(page.startRowIndex, lastRowIndex, startColumnIndex(), rows));
+        chunk.addAll(newMetadata.valueRequest(checkpointRowIndex, newCheckpoint(page.endRowIndex)).requests);
+
+        executeChunk(chunk);
+    }
+
+    /**
+     * @return An UpdateCells of rows. Cells of the range not in given rows are cleared, including cells of removed columns.
+     */
+    private Request newRowsRequest(int startRowIndex, int endRowIndex, int startColumnIndex, List<RowData> rows) {
+        GridRange range = new GridRange()
                 .setSheetId(sheetId)
-                .setStartRowIndex(0)
-                .setEndRowIndex(1)
-                .setStartColumnIndex(0)
-                .setEndColumnIndex(newColumns.size());
+                .setStartRowIndex(startRowIndex)
+                .setEndRowIndex(endRowIndex + 1)
+                .setStartColumnIndex(startColumnIndex)
+                // In the soft-delete mode, tombstones of rewritten rows are cleared, and deleted rows are cleared.
+                // In the replicated mode, row versions are written too.
+                .setEndColumnIndex(Math.max(newColumns.size(), table.getColumns().size())
+                        + (table.isReplicated() ? 2 : table.isSoftDeleteEnabled() ? 1 : 0));
 
-        requests.add(new Request()
+        return new Request()
                 .setUpdateCells(new UpdateCellsRequest()
-                        .setRange(rowRange)
+                        .setRange(range)
                         .setFields("*")
-                        .setRows(convertToSingleRowData(newColumns))));
+                        .setRows(rows));
+    }
+
+    private List<Object> valuesToWrite(Record record) {
+        List<Object> values = record.getValues();
+
+        if (!isColumnAddition()) {
+            return values;
+        }
+
+        return new ArrayList<>(values.subList(Math.min(startColumnIndex(), values.size()), Math.min(newColumns.size(), values.size())));
+    }
+
+    private int startColumnIndex() {
+        return isColumnAddition() ? table.getColumns().size() : 0;
+    }
+
+    /**
+     * @return true if new columns are old columns followed by added columns. Old columns are not rewritten.
+     * In the soft-delete mode and the replicated mode, rows are rewritten because added columns overwrite hidden columns.
+     */
+    private boolean isColumnAddition() {
+        List<Object> oldColumns = table.getColumns();
+
+        return !table.isSoftDeleteEnabled() && !table.isReplicated()
+                && newColumns.size() > oldColumns.size() && newColumns.subList(0, oldColumns.size()).equals(oldColumns);
+    }
+
+    /**
+     * A checkpoint is "{schema version}:{last migrated row index}" in the row of the table.
+     */
+    private String newCheckpoint(int lastRowIndex) {
+        return newMetadata.getSchemaVersion() + ":" + lastRowIndex;
+    }
 
-        // Insert new values.
-        for (Record record : records) {
-            update(record);
+    /**
+     * Finds the row of the checkpoint of the table, appending it if not found.
+     *
+     * @return The row index after the checkpoint of this migration, or 1 if there is no checkpoint.
+     */
+    private int readCheckpoint() throws IOException {
+        Record checkpointRecord = newMetadata.findOrAppend(CHECKPOINT_KEY_PREFIX + table.getName(), "");
+        checkpointRowIndex = checkpointRecord.getRowIndex();
+
+        String[] checkpoint = String.valueOf(checkpointRecord.getValues().get(1)).split(":", 2);
+
+        if (checkpoint.length == 2 && checkpoint[0].equals(String.valueOf(newMetadata.getSchemaVersion()))) {
+            try {
+                return Integer.parseInt(checkpoint[1]) + 1;
+            } catch (NumberFormatException e) {
+            }
         }
 
-        // Update metadata for schema version.
-        requests.addAll(metadataUpdateRequest.requests);
+        return 1;
+    }
+
+    private static class Page {
+
+        final int startRowIndex;
+        final int endRowIndex;
+        final List<Record> oldRecords;
+        final FutureTask<List<Record>> future;
+
+        Page(int startRowIndex, int endRowIndex, List<Record> oldRecords, FutureTask<List<Record>> future) {
+            this.startRowIndex = startRowIndex;
+            this.endRowIndex = endRowIndex;
+            this.oldRecords = oldRecords;
+            this.future = future;
+        }
+
+        List<Record> await() throws InterruptedException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
 
-        super.execute();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
 
-        if (callback != null) {
-            callback.onExecuted();
+                throw new IllegalStateException(cause);
+            }
         }
     }
 }
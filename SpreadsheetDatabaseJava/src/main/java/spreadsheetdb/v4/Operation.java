@@ -0,0 +1,25 @@
+package spreadsheetdb.v4;
+
+/**
+ * A kind of calls of the Sheets API made by requests.
+ */
+public enum Operation {
+    QUERY(RequestScheduler.Lane.READ),
+    APPEND(RequestScheduler.Lane.WRITE),
+    UPDATE(RequestScheduler.Lane.WRITE),
+    DELETE(RequestScheduler.Lane.WRITE),
+    TRUNCATE(RequestScheduler.Lane.WRITE),
+    MIGRATE(RequestScheduler.Lane.WRITE),
+    TRANSACTION(RequestScheduler.Lane.WRITE),
+    CREATE_TABLE(RequestScheduler.Lane.METADATA_WRITE),
+    DROP_TABLE(RequestScheduler.Lane.METADATA_WRITE),
+    CHANGE_TABLE(RequestScheduler.Lane.METADATA_WRITE),
+    GET_SPREADSHEET(RequestScheduler.Lane.METADATA_READ),
+    CREATE_SPREADSHEET(RequestScheduler.Lane.METADATA_WRITE);
+
+    final RequestScheduler.Lane lane;
+
+    Operation(RequestScheduler.Lane lane) {
+        this.lane = lane;
+    }
+}
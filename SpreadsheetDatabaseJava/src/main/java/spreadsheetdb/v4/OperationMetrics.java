@@ -0,0 +1,102 @@
+package spreadsheetdb.v4;
+
+/**
+ * A snapshot of metrics of an operation for a table.
+ */
+public class OperationMetrics {
+
+    private final long count;
+    private final long errorCount;
+    private final long retryCount;
+    private final double meanLatencyMillis;
+    private final double maxLatencyMillis;
+    private final double p50LatencyMillis;
+    private final double p95LatencyMillis;
+    private final double p99LatencyMillis;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long cellsSent;
+    private final long cellsReceived;
+    private final long rowsReturned;
+
+    OperationMetrics(long count,
+                     long errorCount,
+                     long retryCount,
+                     double meanLatencyMillis,
+                     double maxLatencyMillis,
+                     double p50LatencyMillis,
+                     double p95LatencyMillis,
+                     double p99LatencyMillis,
+                     long bytesSent,
+                     long bytesReceived,
+                     long cellsSent,
+                     long cellsReceived,
+                     long rowsReturned) {
+
+        this.count = count;
+        this.errorCount = errorCount;
+        this.retryCount = retryCount;
+        this.meanLatencyMillis = meanLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.p50LatencyMillis = p50LatencyMillis;
+        this.p95LatencyMillis = p95LatencyMillis;
+        this.p99LatencyMillis = p99LatencyMillis;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.cellsSent = cellsSent;
+        this.cellsReceived = cellsReceived;
+        this.rowsReturned = rowsReturned;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    public double getMeanLatencyMillis() {
+        return meanLatencyMillis;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    public double getP50LatencyMillis() {
+        return p50LatencyMillis;
+    }
+
+    public double getP95LatencyMillis() {
+        return p95LatencyMillis;
+    }
+
+    public double getP99LatencyMillis() {
+        return p99LatencyMillis;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getCellsSent() {
+        return cellsSent;
+    }
+
+    public long getCellsReceived() {
+        return cellsReceived;
+    }
+
+    public long getRowsReturned() {
+        return rowsReturned;
+    }
+}
@@ -1,17 +1,44 @@
 package spreadsheetdb.v4;
 
+import com.google.api.services.sheets.v4.model.BatchGetValuesResponse;
 import com.google.api.services.sheets.v4.model.ValueRange;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
 
 public class QueryRequest {
 
+    /**
+     * Numbers and booleans are read as typed values, not as formatted strings.
+     */
+    static final String VALUE_RENDER_OPTION = "UNFORMATTED_VALUE";
+    /**
+     * Dates are read as formatted strings, not as serial numbers.
+     */
+    static final String DATE_TIME_RENDER_OPTION = "FORMATTED_STRING";
+    /**
+     * The initial number of rows of a columnar result. Arrays grow while the response is read.
+     */
+    private static final int COLUMNAR_INITIAL_CAPACITY = 256;
+
     private final Table table;
     private final SpreadsheetHandler spreadsheetHandler;
     private String range;
     private int startRowIndex;
+    private boolean isAll;
+    private String lookupColumn;
+    private Object lookupValue;
+    private Object lookupFrom;
+    private Object lookupTo;
+    private boolean isRangeLookup;
+    private int[] rowIndices;
 
     QueryRequest(Table table, SpreadsheetHandler spreadsheetHandler) {
         this.table = table;
@@ -19,8 +46,11 @@ public class QueryRequest {
     }
 
     public QueryRequest all() {
-        range = table.getName() + "!A2:" + table.getEndColumnA1Notation();
+        range = Table.Grid.range(table.getName(), "A2:" + table.getReadEndColumnA1Notation());
         startRowIndex = 1; // Skip header
+        isAll = true;
+        lookupColumn = null;
+        rowIndices = null;
 
         return this;
     }
@@ -31,40 +61,653 @@ public class QueryRequest {
         }
 
         int row = rowIndex + 1;
-        range = table.getName() + "!A" + row + ":" + table.getEndColumnA1Notation() + row;
+        range = Table.Grid.range(table.getName(), "A" + row + ":" + table.getReadEndColumnA1Notation() + row);
         startRowIndex = rowIndex;
+        isAll = false;
+        lookupColumn = null;
+        rowIndices = null;
+
+        return this;
+    }
+
+    /**
+     * Finds rows of given row indices in a request. Contiguous rows are read as a range.
+     * Records are in the order of given row indices. Empty rows are excluded.
+     */
+    public QueryRequest findByRowIndices(int... rowIndices) {
+        for (int rowIndex : rowIndices) {
+            if (rowIndex < 1) {
+                throw new IndexOutOfBoundsException("First data's `rowIndex` is 1. `rowIndex` 0 is header.");
+            }
+        }
+
+        this.rowIndices = rowIndices.clone();
+        range = null;
+        startRowIndex = 0;
+        isAll = false;
+        lookupColumn = null;
+
+        return this;
+    }
+
+    /**
+     * Finds rows whose value of given column equals `value`.
+     * If the column has an index created by `Table.createIndex`, only matched rows are read.
+     * Otherwise, the whole table is read.
+     */
+    public QueryRequest findBy(String column, Object value) {
+        setLookupColumn(column);
+        lookupValue = value;
+        isRangeLookup = false;
+
+        return this;
+    }
+
+    /**
+     * Finds rows whose value of given column is between `from` and `to` inclusive, in the order of the values.
+     * If `from` or `to` is `null`, the range is not bounded by it.
+     * If the column has a sorted index created by `Table.createIndex`, only matched rows are read.
+     * Otherwise, the whole table is read.
+     */
+    public QueryRequest range(String column, Object from, Object to) {
+        setLookupColumn(column);
+        lookupFrom = from;
+        lookupTo = to;
+        isRangeLookup = true;
 
         return this;
     }
 
+    /**
+     * Reads all rows lazily, `pageSize` rows per request. While the caller works on a page, next page is prefetched.
+     * Reading stops at the first window that has no values.
+     * A `rowIndex` of a record is the position of the row, so empty rows are skipped without shifting following rows.
+     *
+     * @param pageSize The number of rows read by a request.
+     * @return An iterator. Close it if the iteration is stopped before the end.
+     */
+    public RecordIterator stream(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("`pageSize` must be 1 or more.");
+        }
+
+        return new RecordIterator(this, pageSize, spreadsheetHandler.getNestedExecutor());
+    }
+
+    /**
+     * Executes the request on the executor of the database.
+     */
+    public CompletableFuture<List<Record>> executeAsync() {
+        return spreadsheetHandler.executeAsync(new SpreadsheetHandler.Task<List<Record>>() {
+
+            @Override
+            public List<Record> execute() throws IOException {
+                return QueryRequest.this.execute();
+            }
+        });
+    }
+
     public List<Record> execute() throws IOException {
+        Lock lock = spreadsheetHandler.getTableLocks().forTable(table.getName()).readLock();
+        lock.lock();
+
+        try {
+            if (lookupColumn != null) {
+                return executeLookup();
+            }
+
+            if (rowIndices != null) {
+                return fetchRows(toList(rowIndices));
+            }
+
+            if (range == null || startRowIndex <= 0) {
+                return new ArrayList<>();
+            }
+
+            RecordCache cache = table.getRecordCache();
+
+            if (cache != null) {
+                List<Record> cachedRecords = isAll ? cache.getAll() : cachedRecord(cache);
+
+                if (cachedRecords != null) {
+                    return cachedRecords;
+                }
+            }
+
+            SnapshotStore snapshotStore = isAll ? spreadsheetHandler.getSnapshotStore() : null;
+            String version = null;
+
+            if (snapshotStore != null) {
+                List<Record> snapshotRecords = snapshotStore.read(table);
+
+                if (snapshotRecords != null) {
+                    if (cache != null) {
+                        cache.putAll(snapshotRecords);
+                    }
+
+                    return snapshotRecords;
+                }
+
+                version = snapshotStore.getTableVersions().get(table.getName());
+            }
+
+            List<Record> records = readRecords(range);
+
+            if (snapshotStore != null) {
+                snapshotStore.saveAsync(table, records, version);
+            }
+
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Executes the request and returns values column by column, in arrays of types declared by `Table.setColumnType`.
+     * Values of the response are filled into the arrays directly without records. The row cache is not used.
+     *
+     * @throws NumberFormatException If a value of a numeric column is not a number.
+     */
+    public ColumnBatch executeColumnar() throws IOException {
+        Lock lock = spreadsheetHandler.getTableLocks().forTable(table.getName()).readLock();
+        lock.lock();
+
+        try {
+            if (lookupColumn != null || rowIndices != null) {
+                List<Record> records = lookupColumn != null ? executeLookup() : fetchRows(toList(rowIndices));
+                ColumnBatch.Builder builder = new ColumnBatch.Builder(table, records.size());
+
+                for (Record record : records) {
+                    builder.add(record.getRowIndex(), record.getValues());
+                }
+
+                return builder.build();
+            }
+
+            if (range == null || startRowIndex <= 0) {
+                return new ColumnBatch.Builder(table, 0).build();
+            }
+
+            final ColumnBatch.Builder builder = new ColumnBatch.Builder(table, COLUMNAR_INITIAL_CAPACITY);
+
+            // Values are filled into the arrays while the response is read.
+            readRows(range, new ValuesReader.RowHandler() {
+
+                @Override
+                public void onRow(int position, List<Object> rowData) {
+                    if (!table.isTombstoned(rowData)) {
+                        builder.add(startRowIndex + position, rowData);
+                    }
+                }
+            });
+
+            return builder.build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Executes given requests reading their ranges in a batchGet.
+     * Requests of `findBy` and `range` are executed one by one after it.
+     *
+     * @return Records of each request in the order of given requests.
+     */
+    static List<List<Record>> executeBatch(SpreadsheetHandler spreadsheetHandler, List<QueryRequest> queryRequests) throws IOException {
+        TreeSet<String> tableNames = new TreeSet<>();
+
+        for (QueryRequest queryRequest : queryRequests) {
+            tableNames.add(queryRequest.table.getName());
+        }
+
+        List<Lock> locks = spreadsheetHandler.getTableLocks().lockAll(tableNames, false);
+
+        try {
+            ArrayList<BatchRead> reads = new ArrayList<>(queryRequests.size());
+            ArrayList<String> ranges = new ArrayList<>();
+
+            for (QueryRequest queryRequest : queryRequests) {
+                BatchRead read = queryRequest.newBatchRead();
+                reads.add(read);
+
+                if (read != null) {
+                    ranges.addAll(read.ranges);
+                }
+            }
+
+            List<ValueRange> valueRanges = batchGet(spreadsheetHandler, ranges, tableNames.size() == 1 ? tableNames.first() : null);
+            ArrayList<List<Record>> results = new ArrayList<>(queryRequests.size());
+            int offset = 0;
+
+            for (int i = 0; i < queryRequests.size(); i++) {
+                BatchRead read = reads.get(i);
+
+                if (read == null) {
+                    results.add(queryRequests.get(i).execute());
+                    continue;
+                }
+
+                int end = Math.min(offset + read.ranges.size(), valueRanges.size());
+                results.add(read.complete(valueRanges.subList(Math.min(offset, end), end)));
+                offset += read.ranges.size();
+            }
+
+            return results;
+        } finally {
+            spreadsheetHandler.getTableLocks().unlockAll(locks);
+        }
+    }
+
+    /**
+     * @return A read of this request in a batchGet, or `null` if the request cannot be read in a batchGet.
+     */
+    private BatchRead newBatchRead() {
+        if (lookupColumn != null) {
+            return null;
+        }
+
+        if (rowIndices != null) {
+            return new BatchRead(toList(rowIndices));
+        }
+
         if (range == null || startRowIndex <= 0) {
-            return new ArrayList<>();
+            return new BatchRead(new ArrayList<Integer>());
+        }
+
+        return new BatchRead();
+    }
+
+    /**
+     * Reads of a request as ranges of a batchGet. Cached rows are not read.
+     */
+    private class BatchRead {
+
+        final ArrayList<String> ranges = new ArrayList<>();
+        private final List<Integer> rowIndices;
+        private final Record[] cachedRecordsByPosition;
+        private final ArrayList<Integer> rangeStartRowIndices = new ArrayList<>();
+        private List<Record> cachedRecords;
+
+        /**
+         * Reads `range` of the request, e.g.) `all()`.
+         */
+        BatchRead() {
+            RecordCache cache = table.getRecordCache();
+            rowIndices = null;
+            cachedRecordsByPosition = null;
+
+            if (cache != null) {
+                cachedRecords = isAll ? cache.getAll() : cachedRecord(cache);
+            }
+
+            if (cachedRecords == null) {
+                ranges.add(range);
+            }
+        }
+
+        /**
+         * Reads given rows. Contiguous rows are merged into a range.
+         */
+        BatchRead(List<Integer> rowIndices) {
+            RecordCache cache = table.getRecordCache();
+            TreeSet<Integer> rowIndicesToRead = new TreeSet<>();
+            this.rowIndices = rowIndices;
+            cachedRecordsByPosition = new Record[rowIndices.size()];
+
+            for (int i = 0; i < rowIndices.size(); i++) {
+                Record record = cache != null ? cache.get(rowIndices.get(i)) : null;
+
+                if (record != null) {
+                    cachedRecordsByPosition[i] = record;
+                } else {
+                    rowIndicesToRead.add(rowIndices.get(i));
+                }
+            }
+
+            int start = -1;
+            int end = -1;
+
+            for (int rowIndex : rowIndicesToRead) {
+                if (start >= 0 && rowIndex == end + 1) {
+                    end = rowIndex;
+                    continue;
+                }
+
+                if (start >= 0) {
+                    addRange(start, end);
+                }
+
+                start = rowIndex;
+                end = rowIndex;
+            }
+
+            if (start >= 0) {
+                addRange(start, end);
+            }
+        }
+
+        private void addRange(int startRowIndex, int endRowIndex) {
+            rangeStartRowIndices.add(startRowIndex);
+            ranges.add(Table.Grid.range(table.getName(), "A" + (startRowIndex + 1) + ":" + table.getReadEndColumnA1Notation() + (endRowIndex + 1)));
+        }
+
+        /**
+         * @param valueRanges Value ranges of `ranges` in order.
+         */
+        List<Record> complete(List<ValueRange> valueRanges) {
+            if (rowIndices == null) {
+                if (cachedRecords != null) {
+                    return cachedRecords;
+                }
+
+                return toRecords(valueRanges.isEmpty() ? null : valueRanges.get(0).getValues());
+            }
+
+            RecordCache cache = table.getRecordCache();
+            HashMap<Integer, Record> readRecords = new HashMap<>();
+
+            for (int i = 0; i < valueRanges.size() && i < rangeStartRowIndices.size(); i++) {
+                List<List<Object>> values = valueRanges.get(i).getValues();
+                int rowIndex = rangeStartRowIndices.get(i);
+
+                if (values == null) {
+                    continue;
+                }
+
+                for (List<Object> rowData : values) {
+                    // Excludes empty row and deleted row.
+                    if (!rowData.isEmpty() && !table.isTombstoned(rowData)) {
+                        Record record = new Record(rowIndex, Record.normalize(rowData));
+                        readRecords.put(rowIndex, record);
+
+                        if (cache != null) {
+                            cache.put(record);
+                        }
+                    }
+
+                    rowIndex++;
+                }
+            }
+
+            ArrayList<Record> records = new ArrayList<>(rowIndices.size());
+
+            for (int i = 0; i < rowIndices.size(); i++) {
+                Record record = cachedRecordsByPosition[i] != null ? cachedRecordsByPosition[i] : readRecords.get(rowIndices.get(i));
+
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+
+            return records;
+        }
+    }
+
+    /**
+     * Builds records of `range` of the request and caches them.
+     * A `rowIndex` of a record is the position of the row, so empty rows are skipped without shifting following rows.
+     */
+    List<Record> toRecords(List<List<Object>> values) {
+        ArrayList<Record> records = new ArrayList<>();
+
+        if (values != null) {
+            int rowIndex = startRowIndex;
+
+            for (List<Object> rowData : values) {
+                // Excludes empty row and deleted row.
+                if (!rowData.isEmpty() && !table.isTombstoned(rowData)) {
+                    records.add(new Record(rowIndex, Record.normalize(rowData)));
+                }
+
+                rowIndex++;
+            }
         }
 
-        ValueRange response = spreadsheetHandler.getService()
+        cacheRecords(records);
+
+        return records;
+    }
+
+    /**
+     * Reads records of given range of the request in a pass over the response, and caches them.
+     */
+    private List<Record> readRecords(String range) throws IOException {
+        final ArrayList<Record> records = new ArrayList<>();
+
+        readRows(range, new ValuesReader.RowHandler() {
+
+            @Override
+            public void onRow(int position, List<Object> rowData) {
+                if (!table.isTombstoned(rowData)) {
+                    records.add(new Record(startRowIndex + position, rowData));
+                }
+            }
+        });
+
+        cacheRecords(records);
+
+        return records;
+    }
+
+    private void cacheRecords(List<Record> records) {
+        RecordCache cache = table.getRecordCache();
+
+        if (cache != null) {
+            if (isAll) {
+                cache.putAll(records);
+            } else {
+                for (Record record : records) {
+                    cache.put(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads rows from `startRowIndex` to `endRowIndex` inclusive.
+     *
+     * @return Records, or `null` if the window has no values.
+     */
+    List<Record> fetchWindow(int startRowIndex, int endRowIndex) throws IOException {
+        Lock lock = spreadsheetHandler.getTableLocks().forTable(table.getName()).readLock();
+        lock.lock();
+
+        try {
+            String range = Table.Grid.range(table.getName(), "A" + (startRowIndex + 1) + ":" + table.getReadEndColumnA1Notation() + (endRowIndex + 1));
+
+            final ArrayList<Record> records = new ArrayList<>();
+
+            int rowCount = readRows(range, new ValuesReader.RowHandler() {
+
+                @Override
+                public void onRow(int position, List<Object> rowData) {
+                    // Excludes deleted row. Empty rows are excluded by the reader.
+                    if (!table.isTombstoned(rowData)) {
+                        records.add(new Record(startRowIndex + position, rowData));
+                    }
+                }
+            });
+
+            return rowCount > 0 ? records : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads given range with a streaming parser.
+     *
+     * @return The number of rows that are not empty.
+     */
+    private int readRows(String range, ValuesReader.RowHandler rowHandler) throws IOException {
+        return spreadsheetHandler.executeValues(spreadsheetHandler.getService()
                 .spreadsheets()
                 .values()
                 .get(spreadsheetHandler.getSpreadsheetId(), range)
-                .execute();
+                .setValueRenderOption(VALUE_RENDER_OPTION)
+                .setDateTimeRenderOption(DATE_TIME_RENDER_OPTION), Operation.QUERY, table.getName(), rowHandler);
+    }
 
-        List<List<Object>> values = response.getValues();
+    private ValueRange readRange(String range) throws IOException {
+        return spreadsheetHandler.execute(spreadsheetHandler.getService()
+                .spreadsheets()
+                .values()
+                .get(spreadsheetHandler.getSpreadsheetId(), range)
+                .setValueRenderOption(VALUE_RENDER_OPTION)
+                .setDateTimeRenderOption(DATE_TIME_RENDER_OPTION), Operation.QUERY, table.getName());
+    }
 
-        if (values == null || values.isEmpty()) {
-            return new ArrayList<>();
+    private void setLookupColumn(String column) {
+        if (table.getColumnIndex(column) < 0) {
+            throw new IllegalArgumentException("The column `" + column + "` is not found in `" + table.getName() + "`.");
         }
 
-        ArrayList<Record> records = new ArrayList<>();
-        int rowIndex = startRowIndex;
+        lookupColumn = column;
+        range = null;
+        isAll = false;
+        rowIndices = null;
+    }
 
-        for (List<Object> rowData : values) {
-            // Excludes empty row.
-            if (!rowData.isEmpty()) {
-                records.add(new Record(rowIndex, rowData));
-                rowIndex++;
+    private List<Record> executeLookup() throws IOException {
+        ColumnIndex index = table.getIndex(lookupColumn);
+
+        if (index == null || (isRangeLookup && index.getType() != ColumnIndex.Type.SORTED)) {
+            return scan(new ColumnIndex(lookupColumn, table.getColumnIndex(lookupColumn), ColumnIndex.Type.SORTED));
+        }
+
+        if (!index.isBuilt()) {
+            buildIndex(index);
+        }
+
+        List<Integer> rowIndices = isRangeLookup ? index.range(lookupFrom, lookupTo) : index.find(lookupValue);
+        ArrayList<Record> records = new ArrayList<>(rowIndices.size());
+
+        for (Record record : fetchRows(rowIndices)) {
+            // Excludes the row changed by others after the index was built.
+            if (isLookupMatched(index, record)) {
+                records.add(record);
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Reads the whole table and filters rows without the index.
+     */
+    private List<Record> scan(ColumnIndex comparator) throws IOException {
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).all().execute();
+        ArrayList<Record> matchedRecords = new ArrayList<>();
+
+        for (Record record : records) {
+            if (isLookupMatched(comparator, record)) {
+                matchedRecords.add(record);
+            }
+        }
+
+        if (isRangeLookup) {
+            final int columnIndex = comparator.getColumnIndex();
+
+            matchedRecords.sort(new Comparator<Record>() {
+
+                @Override
+                public int compare(Record record1, Record record2) {
+                    return ColumnIndex.KEY_COMPARATOR.compare(
+                            ColumnIndex.key(record1.get(columnIndex)),
+                            ColumnIndex.key(record2.get(columnIndex)));
+                }
+            });
+        }
+
+        return matchedRecords;
+    }
+
+    private boolean isLookupMatched(ColumnIndex index, Record record) {
+        return isRangeLookup ? index.isInRange(record, lookupFrom, lookupTo) : index.matches(record, lookupValue);
+    }
+
+    /**
+     * Builds given index by reading its column. In the soft-delete mode, the tombstone column is read in the same call,
+     * and deleted rows are not indexed.
+     */
+    void buildIndex(ColumnIndex index) throws IOException {
+        String column = Table.Grid.columnA1Notation(index.getColumnIndex() + 1);
+        String range = Table.Grid.range(table.getName(), column + "2:" + column);
+
+        if (!table.isSoftDeleteEnabled()) {
+            ValueRange response = readRange(range);
+
+            index.build(response.getValues());
+
+            return;
+        }
+
+        String tombstoneColumn = Table.Grid.columnA1Notation(table.getTombstoneColumnIndex() + 1);
+        String tombstoneRange = Table.Grid.range(table.getName(), tombstoneColumn + "2:" + tombstoneColumn);
+
+        List<ValueRange> valueRanges = batchGet(spreadsheetHandler, Arrays.asList(range, tombstoneRange), table.getName());
+        List<List<Object>> columnValues = valueRanges.size() > 0 ? valueRanges.get(0).getValues() : null;
+        List<List<Object>> tombstones = valueRanges.size() > 1 ? valueRanges.get(1).getValues() : null;
+
+        if (columnValues != null && tombstones != null) {
+            for (int i = 0; i < tombstones.size() && i < columnValues.size(); i++) {
+                if (!tombstones.get(i).isEmpty() && Boolean.TRUE.equals(tombstones.get(i).get(0))) {
+                    columnValues.set(i, new ArrayList<Object>());
+                }
             }
         }
 
+        index.build(columnValues);
+    }
+
+    /**
+     * Reads given rows in a request. Cached rows are not read.
+     *
+     * @return Records in the order of given row indices. Empty rows are excluded.
+     */
+    private List<Record> fetchRows(List<Integer> rowIndices) throws IOException {
+        BatchRead read = new BatchRead(rowIndices);
+
+        return read.complete(batchGet(spreadsheetHandler, read.ranges, table.getName()));
+    }
+
+    static List<ValueRange> batchGet(SpreadsheetHandler spreadsheetHandler, List<String> ranges, String tableName) throws IOException {
+        if (ranges.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        BatchGetValuesResponse response = spreadsheetHandler.execute(spreadsheetHandler.getService()
+                .spreadsheets()
+                .values()
+                .batchGet(spreadsheetHandler.getSpreadsheetId())
+                .setRanges(ranges)
+                .setValueRenderOption(VALUE_RENDER_OPTION)
+                .setDateTimeRenderOption(DATE_TIME_RENDER_OPTION), Operation.QUERY, tableName);
+
+        return response.getValueRanges() != null ? response.getValueRanges() : new ArrayList<ValueRange>();
+    }
+
+    private static List<Integer> toList(int[] rowIndices) {
+        ArrayList<Integer> list = new ArrayList<>(rowIndices.length);
+
+        for (int rowIndex : rowIndices) {
+            list.add(rowIndex);
+        }
+
+        return list;
+    }
+
+    private List<Record> cachedRecord(RecordCache cache) {
+        Record record = cache.get(startRowIndex);
+
+        if (record == null) {
+            return null;
+        }
+
+        ArrayList<Record> records = new ArrayList<>();
+        records.add(record);
+
         return records;
     }
 }
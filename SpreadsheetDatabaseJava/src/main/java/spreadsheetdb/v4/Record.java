@@ -1,8 +1,14 @@
 package spreadsheetdb.v4;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
+/**
+ * A row. Values read by a query are typed: a number is a Long or a Double, a checkbox is a Boolean,
+ * and others are Strings.
+ */
 public class Record {
 
     /**
@@ -10,6 +16,14 @@ public class Record {
      */
     private final int rowIndex;
     private List<Object> values;
+    /**
+     * Columns changed by `set` and not written yet.
+     */
+    private final BitSet dirtyColumns = new BitSet();
+    /**
+     * true if values are replaced by `setValues`, so the whole row is written.
+     */
+    private boolean isReplaced;
 
     public Record(int rowIndex) {
         this(rowIndex, new ArrayList<>());
@@ -34,6 +48,56 @@ public class Record {
 
     public void setValues(List<Object> values) {
         this.values = values;
+        isReplaced = true;
+    }
+
+    /**
+     * Sets the value of given column, and marks the column as changed.
+     * `BatchUpdateRequest.update` writes changed cells only, keeping other cells and their formats.
+     */
+    public void set(int columnIndex, Object value) {
+        if (columnIndex < 0) {
+            throw new IndexOutOfBoundsException("`columnIndex` must be 0 or more.");
+        }
+
+        if (columnIndex >= values.size()) {
+            ArrayList<Object> newValues = new ArrayList<>(values);
+
+            while (newValues.size() <= columnIndex) {
+                newValues.add("");
+            }
+
+            values = newValues;
+        }
+
+        values.set(columnIndex, value);
+        dirtyColumns.set(columnIndex);
+    }
+
+    /**
+     * @return true if values are changed by `set` or `setValues` and not written yet.
+     */
+    public boolean isDirty() {
+        return isReplaced || !dirtyColumns.isEmpty();
+    }
+
+    /**
+     * @return Columns changed by `set`, or `null` if the whole row must be written.
+     */
+    BitSet getDirtyColumns() {
+        return isReplaced ? null : (BitSet) dirtyColumns.clone();
+    }
+
+    /**
+     * @param writtenColumns Columns returned by `getDirtyColumns`.
+     */
+    void onWritten(BitSet writtenColumns) {
+        if (writtenColumns == null) {
+            dirtyColumns.clear();
+            isReplaced = false;
+        } else {
+            dirtyColumns.andNot(writtenColumns);
+        }
     }
 
     public Object get(int columnIndex) {
@@ -41,22 +105,87 @@ public class Record {
     }
 
     public int getInt(int columnIndex) {
-        return Integer.parseInt(get(columnIndex).toString());
+        Object value = get(columnIndex);
+
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
     }
 
     public long getLong(int columnIndex) {
-        return Long.parseLong(get(columnIndex).toString());
+        Object value = get(columnIndex);
+
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
     }
 
     public float getFloat(int columnIndex) {
-        return Float.parseFloat(get(columnIndex).toString());
+        Object value = get(columnIndex);
+
+        return value instanceof Number ? ((Number) value).floatValue() : Float.parseFloat(value.toString());
     }
 
     public double getDouble(int columnIndex) {
-        return Double.parseDouble(get(columnIndex).toString());
+        Object value = get(columnIndex);
+
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+    }
+
+    public boolean getBoolean(int columnIndex) {
+        Object value = get(columnIndex);
+
+        return value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString());
     }
 
     public String getString(int columnIndex) {
-        return (String) values.get(columnIndex);
+        Object value = values.get(columnIndex);
+
+        return value instanceof String ? (String) value : String.valueOf(value);
+    }
+
+    /**
+     * Converts values of a row read by a query to typed values in place.
+     *
+     * @return Given row.
+     */
+    static List<Object> normalize(List<Object> rowData) {
+        for (int i = 0; i < rowData.size(); i++) {
+            Object value = rowData.get(i);
+
+            if (value instanceof Number && !(value instanceof Long)) {
+                rowData.set(i, normalize(value));
+            }
+        }
+
+        return rowData;
+    }
+
+    /**
+     * @return A Long if given number is an integer in the range of long, or a Double if it is other number.
+     * Given value if it is not a number.
+     */
+    static Object normalize(Object value) {
+        if (!(value instanceof Number)) {
+            return value;
+        }
+
+        if (value instanceof Double) {
+            double doubleValue = (Double) value;
+
+            if (doubleValue == Math.rint(doubleValue) && Math.abs(doubleValue) < 0x1p63) {
+                return (long) doubleValue;
+            }
+
+            return value;
+        }
+
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+
+        try {
+            BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+
+            return decimal.longValueExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            return ((Number) value).doubleValue();
+        }
     }
 }
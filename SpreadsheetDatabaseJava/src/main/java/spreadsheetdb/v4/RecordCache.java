@@ -0,0 +1,208 @@
+package spreadsheetdb.v4;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-through row cache of a table. Rows are evicted in LRU order when the cache exceeds `maxSize`,
+ * and expire `ttlMillis` after they were stored.
+ */
+public class RecordCache {
+
+    private static class CachedRow {
+
+        final List<Object> values;
+        final long expiresAt;
+
+        CachedRow(List<Object> values, long expiresAt) {
+            this.values = values;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<Integer, CachedRow> entries;
+
+    /**
+     * Row indices of the whole table, in order, when `QueryRequest.all()` result is cached.
+     * `null` if the cache does not hold the whole table.
+     */
+    private List<Integer> allRowIndices;
+    private long allExpiresAt;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param maxSize   The maximum number of rows.
+     * @param ttlMillis Time to live of a row in milliseconds. If it is 0 or less, rows never expire.
+     */
+    RecordCache(int maxSize, long ttlMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("`maxSize` must be 1 or more.");
+        }
+
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<Integer, CachedRow>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedRow> eldest) {
+                if (size() > RecordCache.this.maxSize) {
+                    evictionCount++;
+                    allRowIndices = null;
+
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        allRowIndices = null;
+    }
+
+    synchronized Record get(int rowIndex) {
+        CachedRow entry = entries.get(rowIndex);
+
+        if (entry == null || isExpired(entry.expiresAt)) {
+            if (entry != null) {
+                entries.remove(rowIndex);
+            }
+
+            missCount++;
+
+            return null;
+        }
+
+        hitCount++;
+
+        return new Record(rowIndex, new ArrayList<>(entry.values));
+    }
+
+    /**
+     * @return All records of the table, or `null` if the cache does not hold the whole table.
+     */
+    synchronized List<Record> getAll() {
+        if (allRowIndices == null || isExpired(allExpiresAt)) {
+            allRowIndices = null;
+            missCount++;
+
+            return null;
+        }
+
+        ArrayList<Record> records = new ArrayList<>(allRowIndices.size());
+
+        for (Integer rowIndex : allRowIndices) {
+            CachedRow entry = entries.get(rowIndex);
+
+            if (entry == null) {
+                allRowIndices = null;
+                missCount++;
+
+                return null;
+            }
+
+            records.add(new Record(rowIndex, new ArrayList<>(entry.values)));
+        }
+
+        hitCount++;
+
+        return records;
+    }
+
+    synchronized void put(Record record) {
+        if (allRowIndices != null && !entries.containsKey(record.getRowIndex())) {
+            // A new row appears, so the cached table is no longer whole.
+            allRowIndices = null;
+        }
+
+        entries.put(record.getRowIndex(), new CachedRow(new ArrayList<>(record.getValues()), expiresAt()));
+    }
+
+    synchronized void putAll(List<Record> records) {
+        if (records.size() > maxSize) {
+            // The whole table can not be held.
+            allRowIndices = null;
+
+            return;
+        }
+
+        ArrayList<Integer> rowIndices = new ArrayList<>(records.size());
+        long expiresAt = expiresAt();
+
+        for (Record record : records) {
+            entries.put(record.getRowIndex(), new CachedRow(new ArrayList<>(record.getValues()), expiresAt));
+            rowIndices.add(record.getRowIndex());
+        }
+
+        allRowIndices = rowIndices;
+        allExpiresAt = expiresAt;
+    }
+
+    synchronized void invalidate(int rowIndex) {
+        entries.remove(rowIndex);
+    }
+
+    /**
+     * Removes given row and following rows, because deleting a row shifts following rows.
+     */
+    synchronized void invalidateFrom(int rowIndex) {
+        Iterator<Integer> iterator = entries.keySet().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next() >= rowIndex) {
+                iterator.remove();
+            }
+        }
+
+        allRowIndices = null;
+    }
+
+    /**
+     * Rows are appended, so the cached table is no longer whole. Cached rows are still valid.
+     */
+    synchronized void invalidateWholeTable() {
+        allRowIndices = null;
+    }
+
+    private long expiresAt() {
+        return ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+    }
+
+    private static boolean isExpired(long expiresAt) {
+        return System.currentTimeMillis() > expiresAt;
+    }
+}
@@ -0,0 +1,129 @@
+package spreadsheetdb.v4;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Iterates records of a table page by page. At most two pages, the current page and the prefetched next page,
+ * are held in memory.
+ *
+ * @see QueryRequest#stream(int)
+ */
+public class RecordIterator implements Iterator<Record>, Closeable {
+
+    private final QueryRequest queryRequest;
+    private final int pageSize;
+    private final Executor executor;
+    private Iterator<Record> page = Collections.emptyIterator();
+    private Future<List<Record>> nextPage;
+    private int nextStartRowIndex = 1; // Skip header
+    private boolean finished;
+
+    RecordIterator(QueryRequest queryRequest, int pageSize, Executor executor) {
+        this.queryRequest = queryRequest;
+        this.pageSize = pageSize;
+        this.executor = executor;
+    }
+
+    /**
+     * @throws UncheckedIOException If reading a page fails.
+     */
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext()) {
+            if (finished) {
+                return false;
+            }
+
+            if (nextPage == null) {
+                prefetch();
+            }
+
+            List<Record> records = await(nextPage);
+            nextPage = null;
+
+            if (records == null) {
+                finished = true;
+
+                return false;
+            }
+
+            page = records.iterator();
+            prefetch();
+        }
+
+        return true;
+    }
+
+    @Override
+    public Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return page.next();
+    }
+
+    /**
+     * Stops the iteration and cancels prefetching.
+     */
+    @Override
+    public void close() {
+        finished = true;
+        page = Collections.emptyIterator();
+
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+    }
+
+    private void prefetch() {
+        final int startRowIndex = nextStartRowIndex;
+        final int endRowIndex = startRowIndex + pageSize - 1;
+        nextStartRowIndex = endRowIndex + 1;
+
+        FutureTask<List<Record>> task = new FutureTask<>(new Callable<List<Record>>() {
+
+            @Override
+            public List<Record> call() throws IOException {
+                return queryRequest.fetchWindow(startRowIndex, endRowIndex);
+            }
+        });
+        nextPage = task;
+        executor.execute(task);
+    }
+
+    private static List<Record> await(Future<List<Record>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new UncheckedIOException(new InterruptedIOException("Reading a page is interrupted."));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package spreadsheetdb.v4;
+
+import com.google.api.services.sheets.v4.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A local copy of all rows of a replicated table. Writes of this library stamp a new row version in the hidden column
+ * after the tombstone column, so a refresh reads the version column only, and reads rows whose versions changed
+ * by a batchGet of their ranges. Readers see records of the last refresh, which are swapped at once.
+ * <p>
+ * Rows changed without this library, e.g.) by hand, are not found until they are written by this library.
+ *
+ * @see Table#setReplicated(boolean)
+ * @see SpreadsheetDatabase#enableReplica(String, long)
+ */
+public class Replica {
+
+    /**
+     * When more ranges are changed, the whole table is read.
+     */
+    static final int MAX_CHANGED_RANGES = 100;
+
+    private final SpreadsheetHandler spreadsheetHandler;
+    private final Map<String, Table> tables;
+    private final String tableName;
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Columns, rows and versions by position of the last refresh. A position is a row index - 1.
+     */
+    private List<Object> columns;
+    private final ArrayList<List<Object>> rows = new ArrayList<>();
+    private final ArrayList<Object> versions = new ArrayList<>();
+    private volatile List<Record> records = Collections.emptyList();
+    private volatile long lastRefreshedAtMillis;
+    private volatile IOException lastFailure;
+
+    /**
+     * @param tables Tables of the database. The table is looked up on every refresh, because it is replaced by migration.
+     */
+    Replica(SpreadsheetHandler spreadsheetHandler, Map<String, Table> tables, String tableName, long intervalMillis) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("`intervalMillis` must be 1 or more.");
+        }
+
+        this.spreadsheetHandler = spreadsheetHandler;
+        this.tables = tables;
+        this.tableName = tableName;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "spreadsheetdb-replica");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (IOException | RuntimeException e) {
+                    // Retried by the next run.
+                    lastFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return Records of the last refresh, without tombstoned rows. The list is not changed by later refreshes.
+     */
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * @return The time of the last succeeded refresh, or 0.
+     */
+    public long getLastRefreshedAtMillis() {
+        return lastRefreshedAtMillis;
+    }
+
+    /**
+     * @return The failure of the last failed scheduled refresh, or `null`.
+     */
+    public IOException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Reads changed rows now. The first refresh and a refresh after the columns are changed read the whole table.
+     *
+     * @return The number of rows read.
+     */
+    public synchronized int refresh() throws IOException {
+        Table table = tables.get(tableName);
+
+        if (table == null) {
+            throw new IllegalStateException("The table `" + tableName + "` is not found.");
+        }
+
+        Lock lock = spreadsheetHandler.getTableLocks().forTable(tableName).readLock();
+        lock.lock();
+
+        try {
+            int readCount;
+
+            if (!table.getColumns().equals(columns)) {
+                readCount = readAll(table);
+            } else {
+                readCount = readChanges(table);
+            }
+
+            columns = table.getColumns();
+            records = Collections.unmodifiableList(toRecords(table));
+            lastRefreshedAtMillis = System.currentTimeMillis();
+
+            return readCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private int readAll(Table table) throws IOException {
+        String range = Table.Grid.range(tableName, "A2:" + Table.Grid.columnA1Notation(table.getRowVersionColumnIndex() + 1));
+        List<ValueRange> valueRanges = QueryRequest.batchGet(spreadsheetHandler, Collections.singletonList(range), tableName);
+        List<List<Object>> values = !valueRanges.isEmpty() ? valueRanges.get(0).getValues() : null;
+
+        rows.clear();
+        versions.clear();
+
+        if (values == null) {
+            return 0;
+        }
+
+        for (List<Object> rowData : values) {
+            rows.add(rowData);
+            versions.add(versionOf(table, rowData));
+        }
+
+        stampUnversionedRows(table);
+
+        return values.size();
+    }
+
+    /**
+     * Reads the version column, and reads rows whose versions differ from local versions.
+     */
+    private int readChanges(Table table) throws IOException {
+        String column = Table.Grid.columnA1Notation(table.getRowVersionColumnIndex() + 1);
+        List<ValueRange> valueRanges = QueryRequest.batchGet(spreadsheetHandler, Collections.singletonList(Table.Grid.range(tableName, column + "2:" + column)), tableName);
+        List<List<Object>> values = !valueRanges.isEmpty() && valueRanges.get(0).getValues() != null
+                ? valueRanges.get(0).getValues()
+                : new ArrayList<List<Object>>();
+
+        // Rows after the last row are deleted.
+        while (rows.size() > values.size()) {
+            rows.remove(rows.size() - 1);
+            versions.remove(versions.size() - 1);
+        }
+
+        ArrayList<int[]> ranges = new ArrayList<>();
+
+        for (int position = 0; position < values.size(); position++) {
+            Object version = values.get(position).isEmpty() ? "" : values.get(position).get(0);
+
+            if (position < versions.size() && version.equals(versions.get(position))) {
+                continue;
+            }
+
+            int[] lastRange = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+
+            if (lastRange != null && lastRange[1] == position) {
+                lastRange[1]++;
+            } else {
+                ranges.add(new int[]{position, position + 1});
+            }
+        }
+
+        if (ranges.isEmpty()) {
+            return 0;
+        }
+
+        if (ranges.size() > MAX_CHANGED_RANGES) {
+            return readAll(table);
+        }
+
+        String endColumn = Table.Grid.columnA1Notation(table.getRowVersionColumnIndex() + 1);
+        ArrayList<String> a1Ranges = new ArrayList<>(ranges.size());
+
+        for (int[] range : ranges) {
+            // The first row is header.
+            a1Ranges.add(Table.Grid.range(tableName, "A" + (range[0] + 2) + ":" + endColumn + (range[1] + 1)));
+        }
+
+        List<ValueRange> changedRanges = QueryRequest.batchGet(spreadsheetHandler, a1Ranges, tableName);
+        int readCount = 0;
+
+        for (int i = 0; i < ranges.size(); i++) {
+            int[] range = ranges.get(i);
+            List<List<Object>> changedRows = i < changedRanges.size() ? changedRanges.get(i).getValues() : null;
+
+            for (int position = range[0]; position < range[1]; position++) {
+                int offset = position - range[0];
+                List<Object> rowData = changedRows != null && offset < changedRows.size()
+                        ? changedRows.get(offset)
+                        : new ArrayList<Object>();
+
+                while (rows.size() <= position) {
+                    rows.add(new ArrayList<Object>());
+                    versions.add("");
+                }
+
+                rows.set(position, rowData);
+                versions.set(position, versionOf(table, rowData));
+                readCount++;
+            }
+        }
+
+        return readCount;
+    }
+
+    /**
+     * Stamps versions of rows written before the table is replicated, so that shifted rows are found by versions.
+     */
+    private void stampUnversionedRows(Table table) throws IOException {
+        Integer sheetId = spreadsheetHandler.getSheetId(tableName);
+        ArrayList<Request> requests = new ArrayList<>();
+        int position = 0;
+
+        while (sheetId != null && position < rows.size()) {
+            if (!"".equals(versions.get(position)) || rows.get(position).isEmpty()) {
+                position++;
+                continue;
+            }
+
+            int startPosition = position;
+            ArrayList<RowData> versionRows = new ArrayList<>();
+
+            while (position < rows.size() && "".equals(versions.get(position)) && !rows.get(position).isEmpty()) {
+                String version = newVersion();
+                versions.set(position, version);
+                versionRows.add(new RowData().setValues(Collections.singletonList(newVersionCell(version))));
+                position++;
+            }
+
+            requests.add(new Request()
+                    .setUpdateCells(new UpdateCellsRequest()
+                            .setRange(new GridRange()
+                                    .setSheetId(sheetId)
+                                    .setStartRowIndex(startPosition + 1)
+                                    .setEndRowIndex(position + 1)
+                                    .setStartColumnIndex(table.getRowVersionColumnIndex())
+                                    .setEndColumnIndex(table.getRowVersionColumnIndex() + 1))
+                            .setFields("userEnteredValue")
+                            .setRows(versionRows)));
+        }
+
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        spreadsheetHandler.execute(spreadsheetHandler.getService()
+                .spreadsheets()
+                .batchUpdate(spreadsheetHandler.getSpreadsheetId(), new BatchUpdateSpreadsheetRequest().setRequests(requests)),
+                Operation.UPDATE, tableName);
+    }
+
+    private List<Record> toRecords(Table table) {
+        ArrayList<Record> newRecords = new ArrayList<>(rows.size());
+        int columnCount = table.getColumns().size();
+
+        for (int position = 0; position < rows.size(); position++) {
+            List<Object> rowData = rows.get(position);
+            List<Object> values = rowData.subList(0, Math.min(columnCount, rowData.size()));
+
+            if (!isEmpty(values) && !table.isTombstoned(rowData)) {
+                newRecords.add(new Record(position + 1, Record.normalize(new ArrayList<>(values))));
+            }
+        }
+
+        return newRecords;
+    }
+
+    private static boolean isEmpty(List<Object> values) {
+        for (Object value : values) {
+            if (value != null && !"".equals(value)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static Object versionOf(Table table, List<Object> rowData) {
+        int index = table.getRowVersionColumnIndex();
+
+        return index < rowData.size() ? rowData.get(index) : "";
+    }
+
+    /**
+     * Pads given row with cleared cells, and appends a new version.
+     *
+     * @param versionCellIndex The index of the version cell in the row.
+     */
+    static void stamp(RowData row, int versionCellIndex) {
+        ArrayList<CellData> cells = new ArrayList<>(row.getValues() != null ? row.getValues() : new ArrayList<CellData>());
+
+        while (cells.size() < versionCellIndex) {
+            cells.add(new CellData());
+        }
+
+        cells.add(newVersionCell(newVersion()));
+        row.setValues(cells);
+    }
+
+    static CellData newVersionCell(String version) {
+        return new CellData()
+                .setUserEnteredValue(new ExtendedValue().setStringValue(version));
+    }
+
+    private static String newVersion() {
+        return Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+}
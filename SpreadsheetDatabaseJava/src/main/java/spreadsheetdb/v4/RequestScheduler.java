@@ -0,0 +1,275 @@
+package spreadsheetdb.v4;
+
+import com.google.api.client.http.HttpResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules every call of the Sheets API. Calls are throttled by token buckets of the read and write quotas,
+ * and retried with jittered exponential backoff when the API responds 429, or 5xx to a read call.
+ * Writes responded 5xx are not retried, because they may have been applied, and a batchUpdate is not idempotent.
+ * Metadata calls, e.g.) creating a table, take tokens before other calls waiting.
+ *
+ * @see "https://developers.google.com/sheets/api/limits"
+ */
+public class RequestScheduler {
+
+    interface Call<T> {
+
+        T call() throws IOException;
+    }
+
+    public enum Lane {
+        READ(false, false),
+        WRITE(true, false),
+        METADATA_READ(false, true),
+        METADATA_WRITE(true, true);
+
+        final boolean isWrite;
+        final boolean isPriority;
+
+        Lane(boolean isWrite, boolean isPriority) {
+            this.isWrite = isWrite;
+            this.isPriority = isPriority;
+        }
+    }
+
+    /**
+     * The default quota of requests per minute per user.
+     */
+    static final int DEFAULT_REQUESTS_PER_MINUTE = 60;
+    static final int DEFAULT_MAX_RETRIES = 5;
+    static final long DEFAULT_BASE_BACKOFF_MILLIS = 500;
+    static final long DEFAULT_MAX_BACKOFF_MILLIS = 32 * 1000;
+
+    private static class TokenBucket {
+
+        double capacity;
+        double tokens;
+        double tokensPerNano;
+        long lastRefillNanos = System.nanoTime();
+        int waitingPriorityCount;
+
+        TokenBucket(int requestsPerMinute) {
+            setRequestsPerMinute(requestsPerMinute);
+            tokens = capacity;
+        }
+
+        void setRequestsPerMinute(int requestsPerMinute) {
+            capacity = requestsPerMinute;
+            tokensPerNano = requestsPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            tokens = Math.min(tokens, capacity);
+        }
+
+        void refill(long nowNanos) {
+            tokens = Math.min(capacity, tokens + (nowNanos - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = nowNanos;
+        }
+
+        /**
+         * @return Nanoseconds until a token is available.
+         */
+        long nanosUntilAvailable() {
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+    }
+
+    private final TokenBucket readBucket = new TokenBucket(DEFAULT_REQUESTS_PER_MINUTE);
+    private final TokenBucket writeBucket = new TokenBucket(DEFAULT_REQUESTS_PER_MINUTE);
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+    private volatile long baseBackoffMillis = DEFAULT_BASE_BACKOFF_MILLIS;
+    private volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+
+    private int waitingCount;
+    private long throttledNanos;
+    private long retryCount;
+    private long rateLimitedCount;
+
+    RequestScheduler() {
+    }
+
+    public synchronized void setReadRequestsPerMinute(int requestsPerMinute) {
+        checkRequestsPerMinute(requestsPerMinute);
+        readBucket.setRequestsPerMinute(requestsPerMinute);
+        notifyAll();
+    }
+
+    public synchronized void setWriteRequestsPerMinute(int requestsPerMinute) {
+        checkRequestsPerMinute(requestsPerMinute);
+        writeBucket.setRequestsPerMinute(requestsPerMinute);
+        notifyAll();
+    }
+
+    /**
+     * @param maxRetries The maximum number of retries of a call responded 429, or 5xx to a read call. 0 disables retries.
+     */
+    public void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("`maxRetries` must be 0 or more.");
+        }
+
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @param baseBackoffMillis The backoff of the first retry. It is doubled on each retry up to `maxBackoffMillis`.
+     */
+    public void setBackoffMillis(long baseBackoffMillis, long maxBackoffMillis) {
+        if (baseBackoffMillis < 1 || maxBackoffMillis < baseBackoffMillis) {
+            throw new IllegalArgumentException("0 < `baseBackoffMillis` <= `maxBackoffMillis` is required.");
+        }
+
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * @return The number of calls waiting for a token.
+     */
+    public synchronized int getQueueDepth() {
+        return waitingCount;
+    }
+
+    /**
+     * @return Total time calls waited for tokens and backoff.
+     */
+    public synchronized long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos);
+    }
+
+    public synchronized long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return The number of responses of 429.
+     */
+    public synchronized long getRateLimitedCount() {
+        return rateLimitedCount;
+    }
+
+    /**
+     * Executes given call after taking a token, retrying it if needed.
+     *
+     * @param roundTrip Metrics that count retries. It may be `null`.
+     */
+    <T> T execute(Call<T> call, Lane lane, RoundTrip roundTrip) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            acquire(lane);
+
+            try {
+                return call.call();
+            } catch (HttpResponseException e) {
+                if (!isRetryable(e.getStatusCode(), lane) || attempt >= maxRetries) {
+                    throw e;
+                }
+
+                onRetry(lane, e.getStatusCode());
+
+                if (roundTrip != null) {
+                    roundTrip.retries++;
+                }
+
+                backoff(attempt);
+            }
+        }
+    }
+
+    private void acquire(Lane lane) throws InterruptedIOException {
+        TokenBucket bucket = lane.isWrite ? writeBucket : readBucket;
+        long startNanos = System.nanoTime();
+
+        synchronized (this) {
+            waitingCount++;
+
+            if (lane.isPriority) {
+                bucket.waitingPriorityCount++;
+            }
+
+            try {
+                while (true) {
+                    long nowNanos = System.nanoTime();
+                    bucket.refill(nowNanos);
+
+                    boolean canTake = lane.isPriority || bucket.waitingPriorityCount == 0;
+                    long waitNanos = bucket.nanosUntilAvailable();
+
+                    if (canTake && waitNanos == 0) {
+                        bucket.tokens -= 1;
+                        break;
+                    }
+
+                    if (!canTake) {
+                        // Waits until priority calls take tokens.
+                        waitNanos = Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(10));
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException("Waiting for the quota is interrupted.");
+            } finally {
+                waitingCount--;
+
+                if (lane.isPriority) {
+                    bucket.waitingPriorityCount--;
+                    notifyAll();
+                }
+
+                throttledNanos += System.nanoTime() - startNanos;
+            }
+        }
+    }
+
+    private synchronized void onRetry(Lane lane, int statusCode) {
+        retryCount++;
+
+        if (statusCode == 429) {
+            rateLimitedCount++;
+
+            // The quota is exhausted. Other calls wait for refilled tokens, too.
+            TokenBucket bucket = lane.isWrite ? writeBucket : readBucket;
+            bucket.refill(System.nanoTime());
+            bucket.tokens = Math.min(bucket.tokens, 0);
+        }
+    }
+
+    private void backoff(int attempt) throws InterruptedIOException {
+        long maxMillis = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 30));
+        // Jitter between the half and the whole of the backoff.
+        long millis = maxMillis / 2 + ThreadLocalRandom.current().nextLong(maxMillis / 2 + 1);
+        long startNanos = System.nanoTime();
+
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Backoff is interrupted.");
+        } finally {
+            synchronized (this) {
+                throttledNanos += System.nanoTime() - startNanos;
+            }
+        }
+    }
+
+    private static boolean isRetryable(int statusCode, Lane lane) {
+        if (statusCode == 429) {
+            // The call is rejected before it is applied.
+            return true;
+        }
+
+        return !lane.isWrite && (statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504);
+    }
+
+    private static void checkRequestsPerMinute(int requestsPerMinute) {
+        if (requestsPerMinute < 1) {
+            throw new IllegalArgumentException("`requestsPerMinute` must be 1 or more.");
+        }
+    }
+}
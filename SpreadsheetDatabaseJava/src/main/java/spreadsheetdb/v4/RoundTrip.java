@@ -0,0 +1,152 @@
+package spreadsheetdb.v4;
+
+import com.google.api.services.sheets.v4.model.*;
+
+import java.util.List;
+
+/**
+ * Metrics of a call of the Sheets API, including its retries.
+ */
+public class RoundTrip {
+
+    private final Operation operation;
+    private final String tableName;
+    long latencyNanos;
+    long bytesSent;
+    long bytesReceived;
+    long cellsSent;
+    long cellsReceived;
+    int rowsReturned;
+    int retries;
+    Throwable error;
+
+    RoundTrip(Operation operation, String tableName) {
+        this.operation = operation;
+        this.tableName = tableName;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return The table name, or `null` if the call is not for a table, e.g.) it writes several tables.
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * @return Bytes of request bodies written to the transport, after they are compressed. Bodies are counted by
+     *         services of `ClientContext`.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getCellsSent() {
+        return cellsSent;
+    }
+
+    public long getCellsReceived() {
+        return cellsReceived;
+    }
+
+    public int getRowsReturned() {
+        return rowsReturned;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return The exception thrown by the call, or `null` if the call succeeded.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Counts cells sent by given request body.
+     */
+    void countSent(Object content) {
+        if (content instanceof BatchUpdateSpreadsheetRequest) {
+            List<Request> requests = ((BatchUpdateSpreadsheetRequest) content).getRequests();
+
+            if (requests == null) {
+                return;
+            }
+
+            for (Request request : requests) {
+                if (request.getAppendCells() != null) {
+                    cellsSent += countCells(request.getAppendCells().getRows());
+                } else if (request.getUpdateCells() != null) {
+                    cellsSent += countCells(request.getUpdateCells().getRows());
+                }
+            }
+        } else if (content instanceof ValueRange) {
+            List<List<Object>> values = ((ValueRange) content).getValues();
+
+            if (values != null) {
+                for (List<Object> rowData : values) {
+                    cellsSent += rowData.size();
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts cells and rows received by given response.
+     */
+    void countReceived(Object response) {
+        if (response instanceof ValueRange) {
+            countReceived((ValueRange) response);
+        } else if (response instanceof BatchGetValuesResponse) {
+            List<ValueRange> valueRanges = ((BatchGetValuesResponse) response).getValueRanges();
+
+            if (valueRanges != null) {
+                for (ValueRange valueRange : valueRanges) {
+                    countReceived(valueRange);
+                }
+            }
+        }
+    }
+
+    private void countReceived(ValueRange valueRange) {
+        List<List<Object>> values = valueRange.getValues();
+
+        if (values == null) {
+            return;
+        }
+
+        for (List<Object> rowData : values) {
+            if (!rowData.isEmpty()) {
+                cellsReceived += rowData.size();
+                rowsReturned++;
+            }
+        }
+    }
+
+    private static long countCells(List<RowData> rows) {
+        long count = 0;
+
+        if (rows != null) {
+            for (RowData row : rows) {
+                if (row.getValues() != null) {
+                    count += row.getValues().size();
+                }
+            }
+        }
+
+        return count;
+    }
+}
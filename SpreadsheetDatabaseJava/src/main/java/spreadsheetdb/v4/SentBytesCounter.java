@@ -0,0 +1,142 @@
+package spreadsheetdb.v4;
+
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpEncoding;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.util.StreamingContent;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts bytes of request bodies into the round trip of the calling thread as they are written, after they are
+ * compressed. The body is not serialized to count it.
+ *
+ * @see SpreadsheetHandler#execute
+ */
+class SentBytesCounter implements HttpRequestInitializer {
+
+    /**
+     * Counts bytes of the first encoding of an attempt. A body is encoded twice, to compute its length and to send it.
+     */
+    private static class CountingEncoding implements HttpEncoding {
+
+        private final HttpEncoding encoding;
+        private final RoundTrip roundTrip;
+        private boolean isCounted;
+
+        CountingEncoding(HttpEncoding encoding, RoundTrip roundTrip) {
+            this.encoding = encoding;
+            this.roundTrip = roundTrip;
+        }
+
+        @Override
+        public String getName() {
+            return encoding.getName();
+        }
+
+        @Override
+        public void encode(StreamingContent content, OutputStream out) throws IOException {
+            if (isCounted) {
+                encoding.encode(content, out);
+
+                return;
+            }
+
+            CountingOutputStream countingOut = new CountingOutputStream(out);
+
+            try {
+                encoding.encode(content, countingOut);
+            } finally {
+                isCounted = true;
+                roundTrip.bytesSent += countingOut.count;
+            }
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final ThreadLocal<RoundTrip> ROUND_TRIP = new ThreadLocal<>();
+
+    private final HttpRequestInitializer initializer;
+
+    /**
+     * @param initializer An initializer called first, e.g.) a credential, or `null`.
+     */
+    SentBytesCounter(HttpRequestInitializer initializer) {
+        this.initializer = initializer;
+    }
+
+    /**
+     * Counts requests executed by the calling thread into given round trip until `end()` is called.
+     */
+    static void begin(RoundTrip roundTrip) {
+        ROUND_TRIP.set(roundTrip);
+    }
+
+    static void end() {
+        ROUND_TRIP.remove();
+    }
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+        if (initializer != null) {
+            initializer.initialize(request);
+        }
+
+        final HttpExecuteInterceptor interceptor = request.getInterceptor();
+
+        // The encoding is set after the request is initialized, so that it is wrapped before each attempt.
+        request.setInterceptor(new HttpExecuteInterceptor() {
+
+            @Override
+            public void intercept(HttpRequest request) throws IOException {
+                if (interceptor != null) {
+                    interceptor.intercept(request);
+                }
+
+                RoundTrip roundTrip = ROUND_TRIP.get();
+                HttpContent content = request.getContent();
+
+                if (roundTrip == null || content == null) {
+                    return;
+                }
+
+                HttpEncoding encoding = request.getEncoding();
+
+                if (encoding instanceof CountingEncoding) {
+                    encoding = ((CountingEncoding) encoding).encoding;
+                }
+
+                if (encoding != null) {
+                    request.setEncoding(new CountingEncoding(encoding, roundTrip));
+                } else if (content.getLength() >= 0) {
+                    // `AbstractHttpContent` keeps its length, which the request computes anyway to send the body.
+                    roundTrip.bytesSent += content.getLength();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,128 @@
+package spreadsheetdb.v4;
+
+import com.google.api.services.sheets.v4.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sheets of the spreadsheet by title and by sheetId. It is loaded once from the spreadsheet,
+ * and follows AddSheet, DeleteSheet and UpdateSheetProperties requests executed by this library.
+ */
+class SheetRegistry {
+
+    /**
+     * When sheetId of UpdateSheetProperties is not set, Sheet1(sheetId=0) initial created is the target.
+     */
+    private static final int DEFAULT_SHEET_ID = 0;
+
+    private final HashMap<String, Integer> sheetIdsByTitle = new HashMap<>();
+    private final HashMap<Integer, SheetProperties> propertiesBySheetId = new HashMap<>();
+
+    SheetRegistry(List<Sheet> sheets) {
+        if (sheets == null) {
+            return;
+        }
+
+        for (Sheet sheet : sheets) {
+            if (sheet.getProperties() != null) {
+                put(sheet.getProperties());
+            }
+        }
+    }
+
+    synchronized Integer getSheetId(String title) {
+        return sheetIdsByTitle.get(title);
+    }
+
+    synchronized List<String> getTitles() {
+        return new ArrayList<>(sheetIdsByTitle.keySet());
+    }
+
+    synchronized SheetProperties getProperties(int sheetId) {
+        return propertiesBySheetId.get(sheetId);
+    }
+
+    synchronized boolean hasSheet(int sheetId) {
+        return propertiesBySheetId.containsKey(sheetId);
+    }
+
+    /**
+     * @return A new sheetId not used by known sheets, so that a sheet can be added and written in a batchUpdate.
+     */
+    synchronized int newSheetId() {
+        while (true) {
+            int sheetId = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+
+            if (!propertiesBySheetId.containsKey(sheetId)) {
+                return sheetId;
+            }
+        }
+    }
+
+    synchronized void put(SheetProperties properties) {
+        SheetProperties oldProperties = propertiesBySheetId.put(properties.getSheetId(), properties);
+
+        if (oldProperties != null) {
+            sheetIdsByTitle.remove(oldProperties.getTitle());
+        }
+
+        sheetIdsByTitle.put(properties.getTitle(), properties.getSheetId());
+    }
+
+    synchronized void remove(int sheetId) {
+        SheetProperties properties = propertiesBySheetId.remove(sheetId);
+
+        if (properties != null) {
+            sheetIdsByTitle.remove(properties.getTitle());
+        }
+    }
+
+    /**
+     * Applies sheet changes of a succeeded batchUpdate.
+     *
+     * @param requests Requests of the batchUpdate.
+     * @param response Its response. Replies are in the order of the requests.
+     */
+    void apply(List<Request> requests, BatchUpdateSpreadsheetResponse response) {
+        if (requests == null) {
+            return;
+        }
+
+        List<Response> replies = response != null ? response.getReplies() : null;
+
+        for (int i = 0; i < requests.size(); i++) {
+            Request request = requests.get(i);
+            Response reply = replies != null && i < replies.size() ? replies.get(i) : null;
+
+            if (request.getAddSheet() != null) {
+                SheetProperties properties = reply != null && reply.getAddSheet() != null
+                        ? reply.getAddSheet().getProperties()
+                        : request.getAddSheet().getProperties();
+
+                if (properties != null && properties.getSheetId() != null) {
+                    put(properties);
+                }
+            } else if (request.getDeleteSheet() != null && request.getDeleteSheet().getSheetId() != null) {
+                remove(request.getDeleteSheet().getSheetId());
+            } else if (request.getUpdateSheetProperties() != null) {
+                SheetProperties properties = request.getUpdateSheetProperties().getProperties();
+                String fields = request.getUpdateSheetProperties().getFields();
+
+                if (properties != null && properties.getTitle() != null && fields != null && fields.contains("title")) {
+                    int sheetId = properties.getSheetId() != null ? properties.getSheetId() : DEFAULT_SHEET_ID;
+                    put(renamed(sheetId, properties.getTitle()));
+                }
+            }
+        }
+    }
+
+    private synchronized SheetProperties renamed(int sheetId, String title) {
+        SheetProperties properties = propertiesBySheetId.get(sheetId);
+
+        return (properties != null ? properties.clone() : new SheetProperties().setSheetId(sheetId))
+                .setTitle(title);
+    }
+}
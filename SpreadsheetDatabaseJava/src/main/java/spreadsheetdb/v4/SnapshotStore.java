@@ -0,0 +1,369 @@
+package spreadsheetdb.v4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Rows of tables saved in local files, so that `QueryRequest.all()` is served without the Sheets API after a restart.
+ * A snapshot is saved after the whole table is read, with the version token of the table at that time.
+ * It is served while the token is not changed, and it is read through a memory-mapped file.
+ * Tokens are read again every check interval, so that snapshots and cached rows of tables changed by other processes
+ * are dropped.
+ * <p>
+ * A file is `{magic}{format}{token}{columns}{row count}{rows}{CRC32}`. A row is its row index and its tagged values.
+ *
+ * @see SpreadsheetDatabase#enableSnapshots(File)
+ * @see TableVersions
+ */
+class SnapshotStore {
+
+    private static final int MAGIC = 0x53444253;
+    private static final short FORMAT_VERSION = 1;
+    private static final String FILE_EXTENSION = ".snapshot";
+
+    private static final byte TAG_EMPTY = 0;
+    private static final byte TAG_LONG = 1;
+    private static final byte TAG_DOUBLE = 2;
+    private static final byte TAG_BOOLEAN = 3;
+    private static final byte TAG_STRING = 4;
+
+    private final File directory;
+    private final SpreadsheetHandler spreadsheetHandler;
+    private final TableVersions tableVersions;
+    private final Map<String, Table> tables;
+    private final ScheduledExecutorService scheduler;
+    private volatile IOException lastFailure;
+
+    /**
+     * @param tables Tables of the database, whose cached rows are cleared when they are changed by other processes.
+     */
+    SnapshotStore(File directory, SpreadsheetHandler spreadsheetHandler, TableVersions tableVersions,
+                  Map<String, Table> tables, long checkIntervalMillis) {
+        if (checkIntervalMillis < 1) {
+            throw new IllegalArgumentException("`checkIntervalMillis` must be 1 or more.");
+        }
+
+        this.directory = directory;
+        this.spreadsheetHandler = spreadsheetHandler;
+        this.tableVersions = tableVersions;
+        this.tables = tables;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "spreadsheetdb-snapshot");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (IOException | RuntimeException e) {
+                    // Retried by the next run.
+                    lastFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+            }
+        }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    TableVersions getTableVersions() {
+        return tableVersions;
+    }
+
+    /**
+     * @return The failure of the last failed scheduled check, or `null`.
+     */
+    IOException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Reads tokens from the meta table now. Snapshots of tables whose tokens are changed, e.g.) by other processes,
+     * are deleted, and their cached rows are cleared.
+     */
+    void check() throws IOException {
+        for (String tableName : tableVersions.load()) {
+            delete(tableName);
+
+            Table table = tables.get(tableName);
+
+            if (table != null) {
+                table.onRowsRewritten();
+            }
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return Records of the snapshot of given table, or `null` if the snapshot is not found or out of date.
+     */
+    List<Record> read(Table table) {
+        String version = tableVersions.get(table.getName());
+        File file = fileOf(table.getName());
+
+        if (version == null || !file.isFile()) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            return decode(buffer, version, table.getColumns());
+        } catch (IOException | RuntimeException e) {
+            // A broken snapshot is ignored and replaced by the next save.
+            return null;
+        }
+    }
+
+    /**
+     * Saves given records of the whole table on the executor of the database.
+     *
+     * @param version The token of the table before the records are read. If it is changed after, the records are not saved.
+     */
+    void saveAsync(final Table table, List<Record> records, final String version) {
+        if (!tableVersions.has(table.getName())) {
+            // The first save of the table writes its version row only. Rows read before it may be out of date.
+            spreadsheetHandler.getExecutor().execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        tableVersions.allocate(table.getName());
+                    } catch (IOException | RuntimeException e) {
+                        // Retried by the next save.
+                    }
+                }
+            });
+
+            return;
+        }
+
+        if (version == null || !version.equals(tableVersions.get(table.getName()))) {
+            return;
+        }
+
+        // Encoded here, because the caller may change the records.
+        final byte[] bytes;
+
+        try {
+            bytes = encode(records, version, table.getColumns());
+        } catch (IOException e) {
+            return;
+        }
+
+        spreadsheetHandler.getExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    write(table.getName(), bytes);
+                } catch (IOException e) {
+                    // The snapshot is not saved, and the table is read from the spreadsheet.
+                }
+            }
+        });
+    }
+
+    void delete(String tableName) {
+        File file = fileOf(tableName);
+
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    private void write(String tableName, byte[] bytes) throws IOException {
+        Path path = fileOf(tableName).toPath();
+        Path temporaryPath = Files.createTempFile(directory.toPath(), "snapshot", ".tmp");
+
+        try {
+            Files.write(temporaryPath, bytes);
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    private File fileOf(String tableName) {
+        try {
+            return new File(directory, URLEncoder.encode(tableName, "UTF-8") + FILE_EXTENSION);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] encode(List<Record> records, String version, List<Object> columns) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        writeString(out, version);
+        out.writeInt(columns.size());
+
+        for (Object column : columns) {
+            writeString(out, String.valueOf(column));
+        }
+
+        out.writeInt(records.size());
+
+        for (Record record : records) {
+            List<Object> values = record.getValues();
+            out.writeInt(record.getRowIndex());
+            out.writeInt(values.size());
+
+            for (Object value : values) {
+                if (value == null || "".equals(value)) {
+                    out.writeByte(TAG_EMPTY);
+                } else if (value instanceof Long || value instanceof Integer) {
+                    out.writeByte(TAG_LONG);
+                    out.writeLong(((Number) value).longValue());
+                } else if (value instanceof Number) {
+                    out.writeByte(TAG_DOUBLE);
+                    out.writeDouble(((Number) value).doubleValue());
+                } else if (value instanceof Boolean) {
+                    out.writeByte(TAG_BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                } else {
+                    out.writeByte(TAG_STRING);
+                    writeString(out, value.toString());
+                }
+            }
+        }
+
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return Records, or `null` if the snapshot is not of given version and columns.
+     * @throws RuntimeException If the snapshot is broken.
+     */
+    static List<Record> decode(ByteBuffer buffer, String version, List<Object> columns) {
+        if (buffer.remaining() < 8) {
+            return null;
+        }
+
+        // Verifies the checksum of the whole file before decoding rows.
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(buffer.limit() - 8);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        if (buffer.getLong(buffer.limit() - 8) != crc.getValue()) {
+            return null;
+        }
+
+        if (buffer.getInt() != MAGIC || buffer.getShort() != FORMAT_VERSION || !version.equals(readString(buffer))) {
+            return null;
+        }
+
+        int columnCount = buffer.getInt();
+        ArrayList<Object> snapshotColumns = new ArrayList<>(columnCount);
+
+        for (int i = 0; i < columnCount; i++) {
+            snapshotColumns.add(readString(buffer));
+        }
+
+        if (!snapshotColumns.equals(toStrings(columns))) {
+            return null;
+        }
+
+        int rowCount = buffer.getInt();
+        ArrayList<Record> records = new ArrayList<>(rowCount);
+
+        for (int i = 0; i < rowCount; i++) {
+            int rowIndex = buffer.getInt();
+            int valueCount = buffer.getInt();
+            Object[] values = new Object[valueCount];
+
+            for (int j = 0; j < valueCount; j++) {
+                byte tag = buffer.get();
+
+                switch (tag) {
+                    case TAG_EMPTY:
+                        values[j] = "";
+                        break;
+                    case TAG_LONG:
+                        values[j] = buffer.getLong();
+                        break;
+                    case TAG_DOUBLE:
+                        values[j] = buffer.getDouble();
+                        break;
+                    case TAG_BOOLEAN:
+                        values[j] = buffer.get() != 0;
+                        break;
+                    case TAG_STRING:
+                        values[j] = readString(buffer);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown tag " + tag + ".");
+                }
+            }
+
+            records.add(new Record(rowIndex, new ArrayList<>(Arrays.asList(values))));
+        }
+
+        return records;
+    }
+
+    private static List<Object> toStrings(List<Object> columns) {
+        ArrayList<Object> strings = new ArrayList<>(columns.size());
+
+        for (Object column : columns) {
+            strings.add(String.valueOf(column));
+        }
+
+        return strings;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,10 +1,18 @@
 package spreadsheetdb.v4;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.security.GeneralSecurityException;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class SpreadsheetDatabase {
 
@@ -13,25 +21,83 @@ public class SpreadsheetDatabase {
         InputStream getCredentials();
     }
 
-    private static final Object LOCK_OBJECT = new Object();
-    private static final HashMap<String, SpreadsheetDatabase> spreadsheetDatabases = new HashMap<>();
+    /**
+     * Builds a database on a `ClientContext`. Databases built with the same context share its pooled HTTP transport
+     * and its credential.
+     */
+    public static class Builder {
 
-    private SpreadsheetHandler spreadsheetHandler;
-    private final CredentialsProvider credentialsProvider;
-    private final Metadata metadata;
-    private final HashMap<String, Table> tables = new HashMap<>();
+        private final ClientContext clientContext;
+        private String spreadsheetId;
+        private String databaseName;
+
+        public Builder(ClientContext clientContext) {
+            this.clientContext = clientContext;
+        }
+
+        /**
+         * @param spreadsheetId The ID of an existing spreadsheet. If it is not set, a new spreadsheet is created.
+         */
+        public Builder setSpreadsheetId(String spreadsheetId) {
+            this.spreadsheetId = spreadsheetId;
 
-    private final CreateTableRequest.Callback createTableRequestCallback = new CreateTableRequest.Callback() {
+            return this;
+        }
+
+        /**
+         * @param databaseName The title of the spreadsheet. The application name by default.
+         */
+        public Builder setDatabaseName(String databaseName) {
+            this.databaseName = databaseName;
+
+            return this;
+        }
 
-        @Override
-        public void onExecuted() {
-            try {
-                spreadsheetHandler = new SpreadsheetHandler(spreadsheetHandler, credentialsProvider.getCredentials());
-            } catch (Exception e) {
-                e.printStackTrace();
+        /**
+         * @return The database. If the database of the name is built already, returns it.
+         */
+        public SpreadsheetDatabase build() throws IOException {
+            String name = databaseName != null ? databaseName : clientContext.getApplicationName();
+
+            SpreadsheetDatabase db = spreadsheetDatabases.get(name);
+
+            if (db != null) {
+                return db;
+            }
+
+            synchronized (LOCK_OBJECT) {
+                db = spreadsheetDatabases.get(name);
+
+                if (db == null) {
+                    db = new SpreadsheetDatabase(spreadsheetId, name, clientContext);
+                    spreadsheetDatabases.put(name, db);
+                }
+
+                return db;
             }
         }
-    };
+    }
+
+    /**
+     * The default interval to read versions of tables while snapshots are enabled.
+     */
+    public static final long DEFAULT_SNAPSHOT_CHECK_INTERVAL_MILLIS = 60 * 1000;
+
+    private static final Object LOCK_OBJECT = new Object();
+    private static final ConcurrentHashMap<String, SpreadsheetDatabase> spreadsheetDatabases = new ConcurrentHashMap<>();
+
+    private final SpreadsheetHandler spreadsheetHandler;
+    private final Metadata metadata;
+    private final long startupMillis;
+    /**
+     * Tables are read without locks. A table is replaced by a new instance when its columns change.
+     */
+    private final ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Replica> replicas = new ConcurrentHashMap<>();
+    private final Object writeBehindLock = new Object();
+    private final Object compactorLock = new Object();
+    private final Object snapshotLock = new Object();
+    private volatile Compactor compactor;
 
     public static SpreadsheetDatabase newPersonalDatabase(String applicationName,
                                                           CredentialsProvider credentialsProvider) throws GeneralSecurityException, IOException {
@@ -43,18 +109,22 @@ public class SpreadsheetDatabase {
                                                           String databaseName,
                                                           CredentialsProvider credentialsProvider) throws GeneralSecurityException, IOException {
 
-        SpreadsheetDatabase db;
+        SpreadsheetDatabase db = spreadsheetDatabases.get(databaseName);
 
-        if (spreadsheetDatabases.containsKey(databaseName)) {
+        if (db != null) {
+            return db;
+        }
+
+        synchronized (LOCK_OBJECT) {
             db = spreadsheetDatabases.get(databaseName);
-        } else {
-            db = new SpreadsheetDatabase(null, applicationName, databaseName, credentialsProvider);
-            synchronized (LOCK_OBJECT) {
+
+            if (db == null) {
+                db = new SpreadsheetDatabase(null, databaseName, newClientContext(applicationName, credentialsProvider));
                 spreadsheetDatabases.put(databaseName, db);
             }
-        }
 
-        return db;
+            return db;
+        }
     }
 
     public static SpreadsheetDatabase getPersonalDatabase(String spreadsheetId,
@@ -69,28 +139,59 @@ public class SpreadsheetDatabase {
                                                           String databaseName,
                                                           CredentialsProvider credentialsProvider) throws GeneralSecurityException, IOException {
 
-        SpreadsheetDatabase db;
+        SpreadsheetDatabase db = spreadsheetDatabases.get(databaseName);
+
+        if (db != null) {
+            return db;
+        }
 
-        if (spreadsheetDatabases.containsKey(databaseName)) {
+        synchronized (LOCK_OBJECT) {
             db = spreadsheetDatabases.get(databaseName);
-        } else {
-            db = new SpreadsheetDatabase(spreadsheetId, applicationName, databaseName, credentialsProvider);
-            synchronized (LOCK_OBJECT) {
+
+            if (db == null) {
+                db = new SpreadsheetDatabase(spreadsheetId, databaseName, newClientContext(applicationName, credentialsProvider));
                 spreadsheetDatabases.put(databaseName, db);
             }
+
+            return db;
+        }
+    }
+
+    private SpreadsheetDatabase(String spreadsheetId, String databaseName, ClientContext clientContext) throws IOException {
+        this(System.nanoTime(), new SpreadsheetHandler(clientContext, spreadsheetId, databaseName), spreadsheetId == null, clientContext.getApplicationName());
+    }
+
+    /**
+     * Opens a database on given handler, e.g.) a handler on a fake HTTP transport in tests.
+     */
+    SpreadsheetDatabase(SpreadsheetHandler spreadsheetHandler, String applicationName) throws IOException {
+        this(System.nanoTime(), spreadsheetHandler, false, applicationName);
+    }
+
+    private SpreadsheetDatabase(long startNanos, SpreadsheetHandler spreadsheetHandler, boolean createDb, String applicationName) throws IOException {
+        this.spreadsheetHandler = spreadsheetHandler;
+        metadata = Metadata.newInstance(createDb, applicationName, spreadsheetHandler, null);
+
+        // Finds existing tables with the meta table in a call.
+        Catalog catalog = Catalog.load(spreadsheetHandler, metadata);
+        metadata.load(catalog.getMetadataRecords());
+
+        for (Map.Entry<String, List<Object>> entry : catalog.getColumnsByTable().entrySet()) {
+            tables.put(entry.getKey(), new Table(entry.getKey(), entry.getValue()));
         }
 
-        return db;
+        startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
     }
 
-    private SpreadsheetDatabase(String spreadsheetId,
-                                String applicationName,
-                                String databaseName,
-                                CredentialsProvider credentialsProvider) throws GeneralSecurityException, IOException {
+    /**
+     * Creates a context used by a database only.
+     */
+    private static ClientContext newClientContext(String applicationName,
+                                                  CredentialsProvider credentialsProvider) throws GeneralSecurityException, IOException {
 
-        this.credentialsProvider = credentialsProvider;
-        spreadsheetHandler = new SpreadsheetHandler(spreadsheetId, applicationName, databaseName, credentialsProvider.getCredentials());
-        metadata = Metadata.newInstance(spreadsheetId == null, applicationName, spreadsheetHandler, createTableRequestCallback);
+        return new ClientContext.Builder(applicationName)
+                .setCredentials(credentialsProvider.getCredentials())
+                .build();
     }
 
     public String getSpreadsheetId() {
@@ -101,6 +202,13 @@ public class SpreadsheetDatabase {
         return spreadsheetHandler.getSpreadsheetTitle();
     }
 
+    /**
+     * @return The time to open this database in milliseconds, including the discovery of existing tables.
+     */
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+
     public Metadata getMetadata() {
         return metadata;
     }
@@ -109,11 +217,291 @@ public class SpreadsheetDatabase {
         return tables.get(tableName);
     }
 
+    /**
+     * Sets the executor that runs `executeAsync()` of requests and background work.
+     * Callbacks that update this database run on the executor thread before the future is completed,
+     * so stages depending on the future see the updated tables.
+     *
+     * @param executor An executor. If it is `null`, the default executor using daemon threads is used.
+     */
+    public void setExecutor(Executor executor) {
+        spreadsheetHandler.setExecutor(executor);
+    }
+
+    public Executor getExecutor() {
+        return spreadsheetHandler.getExecutor();
+    }
+
+    /**
+     * @return The scheduler that throttles and retries every call of the Sheets API.
+     */
+    public RequestScheduler getRequestScheduler() {
+        return spreadsheetHandler.getRequestScheduler();
+    }
+
+    /**
+     * Sets the listener that receives metrics of every call of the Sheets API.
+     *
+     * @param metricsListener A listener, or `null` to stop reporting.
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        spreadsheetHandler.setMetricsListener(metricsListener);
+    }
+
+    public MetricsListener getMetricsListener() {
+        return spreadsheetHandler.getMetricsListener();
+    }
+
+    /**
+     * Sets a `JmxMetricsListener` registered to the platform MBean server by the database name.
+     *
+     * @return The listener.
+     */
+    public JmxMetricsListener enableJmxMetrics() {
+        JmxMetricsListener listener = new JmxMetricsListener();
+        listener.register(getDatabaseName());
+        listener.setStartupMillis(startupMillis);
+        setMetricsListener(listener);
+
+        return listener;
+    }
+
+    /**
+     * Enables the write-behind mode. Requests queued by `BatchUpdateRequest.enqueue()` are merged across tables
+     * and sent in a batchUpdate call when `maxRequests` requests are queued or `maxDelayMillis` passed.
+     * Call `flush()` or `disableWriteBehind()` before shutdown to write queued requests.
+     */
+    public void enableWriteBehind(int maxRequests, long maxDelayMillis) throws IOException {
+        WriteBehindQueue oldQueue;
+
+        synchronized (writeBehindLock) {
+            oldQueue = spreadsheetHandler.getWriteBehindQueue();
+            spreadsheetHandler.setWriteBehindQueue(new WriteBehindQueue(maxRequests, maxDelayMillis));
+        }
+
+        if (oldQueue != null) {
+            oldQueue.shutdown();
+        }
+    }
+
+    /**
+     * Writes queued requests and disables the write-behind mode.
+     */
+    public void disableWriteBehind() throws IOException {
+        WriteBehindQueue queue;
+
+        synchronized (writeBehindLock) {
+            queue = spreadsheetHandler.getWriteBehindQueue();
+            spreadsheetHandler.setWriteBehindQueue(null);
+        }
+
+        if (queue != null) {
+            queue.shutdown();
+        }
+    }
+
+    /**
+     * Writes requests queued in the write-behind mode and waits until they are written.
+     */
+    public void flush() throws IOException {
+        WriteBehindQueue queue = spreadsheetHandler.getWriteBehindQueue();
+
+        if (queue != null) {
+            queue.flush();
+        }
+    }
+
+    /**
+     * Enables the scheduled compaction of tables in the soft-delete mode. Every `intervalMillis`, rows marked with
+     * tombstones are deleted from tables not called in last `quietMillis` and having `minTombstones` or more tombstones.
+     *
+     * @return The compactor.
+     * @see Table#setSoftDeleteEnabled(boolean)
+     */
+    public Compactor enableCompaction(long intervalMillis, long quietMillis, int minTombstones) {
+        Compactor newCompactor = new Compactor(spreadsheetHandler, tables.values(), intervalMillis, quietMillis, minTombstones);
+        Compactor oldCompactor;
+
+        synchronized (compactorLock) {
+            oldCompactor = compactor;
+            compactor = newCompactor;
+        }
+
+        if (oldCompactor != null) {
+            oldCompactor.shutdown();
+        }
+
+        return newCompactor;
+    }
+
+    public void disableCompaction() {
+        Compactor oldCompactor;
+
+        synchronized (compactorLock) {
+            oldCompactor = compactor;
+            compactor = null;
+        }
+
+        if (oldCompactor != null) {
+            oldCompactor.shutdown();
+        }
+    }
+
+    /**
+     * @return The compactor, or `null` if the compaction is disabled.
+     */
+    public Compactor getCompactor() {
+        return compactor;
+    }
+
+    /**
+     * Enables the replicated mode of given table, and keeps a local copy of its rows refreshed every `intervalMillis`.
+     * The first refresh reads the whole table in this call. Later refreshes read changed rows only.
+     *
+     * @return The replica.
+     * @throws IllegalArgumentException If the table is not found.
+     * @see Table#setReplicated(boolean)
+     */
+    public Replica enableReplica(String tableName, long intervalMillis) throws IOException {
+        Table table = getTable(tableName);
+
+        if (table == null) {
+            throw new IllegalArgumentException("The table `" + tableName + "` is not found.");
+        }
+
+        table.setReplicated(true);
+
+        Replica newReplica = new Replica(spreadsheetHandler, tables, tableName, intervalMillis);
+        Replica oldReplica = replicas.put(tableName, newReplica);
+
+        if (oldReplica != null) {
+            oldReplica.shutdown();
+        }
+
+        try {
+            newReplica.refresh();
+        } catch (IOException | RuntimeException e) {
+            replicas.remove(tableName, newReplica);
+            newReplica.shutdown();
+
+            throw e;
+        }
+
+        return newReplica;
+    }
+
+    /**
+     * Stops refreshing the replica of given table. Writes keep row versions while the table is in the replicated mode.
+     */
+    public void disableReplica(String tableName) {
+        Replica oldReplica = replicas.remove(tableName);
+
+        if (oldReplica != null) {
+            oldReplica.shutdown();
+        }
+    }
+
+    /**
+     * @return The replica of given table, or `null` if it is not enabled.
+     */
+    public Replica getReplica(String tableName) {
+        return replicas.get(tableName);
+    }
+
+    /**
+     * Enables snapshots of tables in given directory, checking versions every `DEFAULT_SNAPSHOT_CHECK_INTERVAL_MILLIS`.
+     *
+     * @see #enableSnapshots(File, long)
+     */
+    public void enableSnapshots(File directory) throws IOException {
+        enableSnapshots(directory, DEFAULT_SNAPSHOT_CHECK_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Enables snapshots of tables in given directory. After a table is read by `QueryRequest.all()`, its rows are saved
+     * in a file with the version of the table kept in the meta table. While the version is not changed, e.g.) after
+     * a restart, `all()` is served by the file. Writes of this library change the version in the same call.
+     * <p>
+     * Versions are read from the meta table by this call, and snapshots of changed tables are refreshed in background.
+     * Versions are read again every `checkIntervalMillis`, and snapshots and cached rows of tables changed
+     * by other processes are dropped, so they are served at most `checkIntervalMillis` after the change.
+     */
+    public void enableSnapshots(File directory, long checkIntervalMillis) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("The directory `" + directory + "` cannot be created.");
+        }
+
+        TableVersions tableVersions = new TableVersions(spreadsheetHandler, metadata);
+        tableVersions.load();
+
+        final SnapshotStore snapshotStore = new SnapshotStore(directory, spreadsheetHandler, tableVersions, tables, checkIntervalMillis);
+        SnapshotStore oldSnapshotStore;
+
+        synchronized (snapshotLock) {
+            oldSnapshotStore = spreadsheetHandler.getSnapshotStore();
+            spreadsheetHandler.setSnapshotStore(snapshotStore);
+        }
+
+        if (oldSnapshotStore != null) {
+            oldSnapshotStore.shutdown();
+        }
+
+        for (final Table table : tables.values()) {
+            if (snapshotStore.read(table) != null) {
+                continue;
+            }
+
+            // Refreshes the snapshot of a changed table.
+            new QueryRequest(table, spreadsheetHandler).all().executeAsync();
+        }
+    }
+
+    public void disableSnapshots() {
+        SnapshotStore oldSnapshotStore;
+
+        synchronized (snapshotLock) {
+            oldSnapshotStore = spreadsheetHandler.getSnapshotStore();
+            spreadsheetHandler.setSnapshotStore(null);
+        }
+
+        if (oldSnapshotStore != null) {
+            oldSnapshotStore.shutdown();
+        }
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread for each task. Virtual threads are available on Java 21 or later.
+     *
+     * @throws UnsupportedOperationException If the JVM does not support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported on this JVM.", e);
+        }
+    }
+
     public CreateTableRequest createTableRequest(String tableName, List<Object> columns) {
+        return createTableRequest(tableName, columns, null);
+    }
+
+    /**
+     * @param primaryKey The primary key column used by `BatchUpdateRequest.upsert`, or `null`.
+     * @throws IllegalArgumentException If the primary key is not found in the columns.
+     */
+    public CreateTableRequest createTableRequest(String tableName, List<Object> columns, String primaryKey) {
         Table table = new Table(tableName, columns);
+
+        if (primaryKey != null) {
+            table.setPrimaryKey(primaryKey);
+        }
+
         tables.put(tableName, table);
 
-        return new CreateTableRequest(tableName, columns, spreadsheetHandler, createTableRequestCallback);
+        return new CreateTableRequest(tableName, columns, spreadsheetHandler, null);
     }
 
     public DropTableRequest dropTableRequest(String tableName) {
@@ -130,6 +518,23 @@ public class SpreadsheetDatabase {
         return new QueryRequest(getTable(tableName), spreadsheetHandler);
     }
 
+    /**
+     * Executes given query requests in a batchGet call. Requests may be of different tables.
+     * Requests of `findBy` and `range` are executed one by one after it.
+     *
+     * @return Records of each request in the order of given requests.
+     */
+    public List<List<Record>> batchQuery(QueryRequest... queryRequests) throws IOException {
+        return QueryRequest.executeBatch(spreadsheetHandler, Arrays.asList(queryRequests));
+    }
+
+    /**
+     * @return A transaction that commits inserts, updates and deletes on any tables in a batchUpdate call.
+     */
+    public Transaction transaction() {
+        return new Transaction(this, spreadsheetHandler);
+    }
+
     public BatchUpdateRequest updateRequest(String tableName) {
         return new BatchUpdateRequest(getTable(tableName), spreadsheetHandler);
     }
@@ -146,13 +551,16 @@ public class SpreadsheetDatabase {
         Metadata newMetadata = new Metadata(metadata);
         newMetadata.setSchemaVersion(newSchemaVersion);
 
-        return new MigrateRequest(newMetadata.updateRequest(), getTable(tableName), newColumns, spreadsheetHandler, new MigrateRequest.Callback() {
+        return new MigrateRequest(newMetadata, getTable(tableName), newColumns, spreadsheetHandler, new MigrateRequest.Callback() {
 
             @Override
             public void onExecuted() {
-                metadata.setSchemaVersion(newSchemaVersion);
+                // Called in the write lock of the table.
+                synchronized (metadata) {
+                    metadata.setSchemaVersion(newSchemaVersion);
+                }
 
-                Table table = new Table(tableName, newColumns);
+                Table table = new Table(tableName, newColumns, tables.get(tableName));
                 tables.put(tableName, table);
             }
         });
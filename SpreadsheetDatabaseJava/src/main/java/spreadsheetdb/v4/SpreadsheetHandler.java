@@ -1,25 +1,26 @@
 package spreadsheetdb.v4;
 
-import com.google.api.client.auth.oauth2.Credential;
-import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
-import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
-import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
-import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.jackson2.JacksonFactory;
-import com.google.api.client.util.store.FileDataStoreFactory;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.services.sheets.v4.Sheets;
-import com.google.api.services.sheets.v4.SheetsScopes;
 import com.google.api.services.sheets.v4.model.*;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.security.GeneralSecurityException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 class SpreadsheetHandler {
 
@@ -41,35 +42,119 @@ class SpreadsheetHandler {
         String COLUMNS = "COLUMNS";
     }
 
-    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
-    private static final String TOKENS_DIRECTORY_PATH = "tokens";
+    interface Task<T> {
 
+        T execute() throws IOException;
+    }
+
+    /**
+     * Counts bytes read from the response.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b >= 0) {
+                count++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+
+            if (n > 0) {
+                count += n;
+            }
+
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+
+            return skipped;
+        }
+    }
+
+    /**
+     * Fields of the spreadsheet used by this library. Other fields, e.g.) formats and grid data, are not sent.
+     */
+    private static final String SPREADSHEET_FIELDS = "spreadsheetId,sheets.properties(sheetId,title,index)";
     /**
-     * Global instance of the scopes required by this library.
-     * If modifying these scopes, delete your previously saved tokens/ folder.
+     * Runs asynchronous requests and background work when no executor is set.
+     * Its threads are daemon so that they do not block JVM exit.
      */
-    private static final List<String> SCOPES = Collections.singletonList(SheetsScopes.SPREADSHEETS);
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "spreadsheetdb-worker");
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    });
+
+    /**
+     * Runs work which its caller waits for, e.g.) split calls of a batch update, pages of a migration and prefetched
+     * pages. The caller may run on the executor, and a bounded executor deadlocks if the caller waits for tasks queued
+     * behind itself, so that the work does not run on the executor.
+     */
+    private static final ExecutorService NESTED_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "spreadsheetdb-nested-worker");
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    });
 
     private final Sheets service;
     private final Spreadsheet spreadsheet;
     private final String spreadsheetTitle;
+    private final SheetRegistry sheetRegistry;
+    private final TableLocks tableLocks = new TableLocks();
+    private final ConcurrentHashMap<String, Long> lastAccessMillisByTable = new ConcurrentHashMap<>();
+    private volatile Executor executor = DEFAULT_EXECUTOR;
+    private volatile WriteBehindQueue writeBehindQueue;
+    private volatile RequestScheduler requestScheduler = new RequestScheduler();
+    private volatile MetricsListener metricsListener;
+    private volatile SnapshotStore snapshotStore;
 
-    public SpreadsheetHandler(String spreadsheetId,
-                              String applicationName,
-                              String spreadsheetTitle,
-                              InputStream credentialsFile) throws GeneralSecurityException, IOException {
+    /**
+     * Creates a handler on the shared transport and credential of given context.
+     */
+    public SpreadsheetHandler(ClientContext clientContext, String spreadsheetId, String spreadsheetTitle) throws IOException {
+        this(clientContext.newService(), spreadsheetId, spreadsheetTitle);
+    }
 
-        // Build a new authorized API client service.
-        final NetHttpTransport httpTransport = GoogleNetHttpTransport.newTrustedTransport();
-        service = new Sheets.Builder(httpTransport, JSON_FACTORY, getCredentials(credentialsFile, httpTransport))
-                .setApplicationName(applicationName)
-                .build();
+    /**
+     * Creates a handler using given service, e.g.) a service on a fake HTTP transport in benchmarks.
+     */
+    SpreadsheetHandler(Sheets service, String spreadsheetId, String spreadsheetTitle) throws IOException {
+        this.service = service;
 
         Spreadsheet spreadsheet;
 
         try {
             if (spreadsheetId != null) {
-                spreadsheet = service.spreadsheets().get(spreadsheetId).execute();
+                spreadsheet = execute(service.spreadsheets().get(spreadsheetId)
+                        .setFields(SPREADSHEET_FIELDS), Operation.GET_SPREADSHEET, null);
             } else {
                 throw new NullPointerException();
             }
@@ -77,91 +162,373 @@ class SpreadsheetHandler {
             spreadsheet = new Spreadsheet()
                     .setProperties(new SpreadsheetProperties()
                             .setTitle(spreadsheetTitle));
-            spreadsheet = service.spreadsheets().create(spreadsheet)
-                    .setFields("spreadsheetId")
-                    .execute();
+            spreadsheet = execute(service.spreadsheets().create(spreadsheet)
+                    .setFields("spreadsheetId"), Operation.CREATE_SPREADSHEET, null);
         }
 
         this.spreadsheet = spreadsheet;
         this.spreadsheetTitle = spreadsheetTitle;
-    }
-
-    public SpreadsheetHandler(SpreadsheetHandler spreadsheetHandler, InputStream credentialsFile) throws GeneralSecurityException, IOException {
-        this(spreadsheetHandler.getSpreadsheetId(),
-                spreadsheetHandler.getService().getApplicationName(),
-                spreadsheetHandler.getSpreadsheetTitle(),
-                credentialsFile);
+        this.sheetRegistry = new SheetRegistry(spreadsheet.getSheets());
     }
 
     public Sheets getService() {
         return service;
     }
 
-    public String getSpreadsheetId() {
-        return spreadsheet.getSpreadsheetId();
+    public Executor getExecutor() {
+        return executor;
     }
 
-    public String getSpreadsheetTitle() {
-        return spreadsheetTitle;
+    /**
+     * @return The executor of work which its caller waits for.
+     */
+    Executor getNestedExecutor() {
+        return NESTED_EXECUTOR;
     }
 
-    public Integer getSheetId(String sheetTitle) {
-        List<Sheet> sheets = spreadsheet.getSheets();
+    /**
+     * @param executor An executor. If it is `null`, the default executor is used.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor != null ? executor : DEFAULT_EXECUTOR;
+    }
 
-        if (sheets == null) {
-            return null;
+    /**
+     * @return The write-behind queue, or `null` if the write-behind mode is disabled.
+     */
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    public void setWriteBehindQueue(WriteBehindQueue writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
+    /**
+     * Writes requests of given table queued in the write-behind mode. Call it before taking the write lock of the table
+     * to shift or rewrite its rows, so that queued requests are written to the rows they address.
+     */
+    void flushWriteBehind(String tableName) throws IOException {
+        WriteBehindQueue queue = writeBehindQueue;
+
+        if (queue != null) {
+            queue.flush(tableName);
+        }
+    }
+
+    /**
+     * Runs given task on the executor.
+     *
+     * @return A future completed with the result of the task, or completed exceptionally with its exception.
+     */
+    public <T> CompletableFuture<T> executeAsync(final Task<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        future.complete(task.execute());
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // e.g.) RejectedExecutionException
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    public RequestScheduler getRequestScheduler() {
+        return requestScheduler;
+    }
+
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Executes given request of the Sheets API through the request scheduler, and reports its metrics.
+     *
+     * @param tableName The table name, or `null` if the request is not for a table.
+     */
+    public <T> T execute(final AbstractGoogleClientRequest<T> request, Operation operation, String tableName) throws IOException {
+        final MetricsListener listener = metricsListener;
+
+        if (tableName != null) {
+            lastAccessMillisByTable.put(tableName, System.currentTimeMillis());
         }
 
-        for (Sheet sheet : sheets) {
-            SheetProperties properties = sheet.getProperties();
+        final Map<String, String> newVersions = stampVersions(request);
 
-            if (properties != null && sheetTitle.equals(properties.getTitle())) {
-                return properties.getSheetId();
+        if (listener == null) {
+            T response = requestScheduler.execute(new RequestScheduler.Call<T>() {
+
+                @Override
+                public T call() throws IOException {
+                    return request.execute();
+                }
+            }, operation.lane, null);
+
+            onExecuted(request, response, newVersions);
+
+            return response;
+        }
+
+        final RoundTrip roundTrip = new RoundTrip(operation, tableName);
+        long startNanos = System.nanoTime();
+
+        try {
+            HttpContent content = request.getHttpContent();
+
+            if (content instanceof JsonHttpContent) {
+                roundTrip.countSent(((JsonHttpContent) content).getData());
             }
+
+            T response = requestScheduler.execute(new RequestScheduler.Call<T>() {
+
+                @Override
+                public T call() throws IOException {
+                    return executeCountingBytes(request, roundTrip);
+                }
+            }, operation.lane, roundTrip);
+
+            roundTrip.countReceived(response);
+            onExecuted(request, response, newVersions);
+
+            return response;
+        } catch (IOException | RuntimeException e) {
+            roundTrip.error = e;
+
+            throw e;
+        } finally {
+            // Including the time waiting for the quota and retries.
+            roundTrip.latencyNanos = System.nanoTime() - startNanos;
+            listener.onRoundTrip(roundTrip);
+        }
+    }
+
+    /**
+     * Executes given request of values, and reads rows of the response by given handler with a streaming parser,
+     * instead of parsing the response into a `ValueRange`.
+     *
+     * @return The number of rows that are not empty.
+     */
+    int executeValues(final AbstractGoogleClientRequest<ValueRange> request,
+                      Operation operation,
+                      String tableName,
+                      ValuesReader.RowHandler rowHandler) throws IOException {
+
+        final MetricsListener listener = metricsListener;
+
+        if (tableName != null) {
+            lastAccessMillisByTable.put(tableName, System.currentTimeMillis());
+        }
+
+        RoundTrip roundTrip = listener != null ? new RoundTrip(operation, tableName) : null;
+        long startNanos = System.nanoTime();
+
+        try {
+            // The response is read after the call returns, so that a retry does not pass rows twice.
+            HttpResponse response = requestScheduler.execute(new RequestScheduler.Call<HttpResponse>() {
+
+                @Override
+                public HttpResponse call() throws IOException {
+                    return request.executeUnparsed();
+                }
+            }, operation.lane, roundTrip);
+
+            ValuesReader reader = new ValuesReader(rowHandler);
+            InputStream content = response.getContent();
+
+            if (content == null) {
+                return 0;
+            }
+
+            CountingInputStream in = new CountingInputStream(content);
+
+            try {
+                reader.read(in);
+            } finally {
+                in.close();
+
+                if (roundTrip != null) {
+                    roundTrip.bytesReceived += in.count;
+                    roundTrip.cellsReceived += reader.getCellCount();
+                    roundTrip.rowsReturned += reader.getRowCount();
+                }
+            }
+
+            return reader.getRowCount();
+        } catch (IOException | RuntimeException e) {
+            if (roundTrip != null) {
+                roundTrip.error = e;
+            }
+
+            throw e;
+        } finally {
+            if (roundTrip != null) {
+                // Including the time waiting for the quota and retries.
+                roundTrip.latencyNanos = System.nanoTime() - startNanos;
+                listener.onRoundTrip(roundTrip);
+            }
+        }
+    }
+
+    /**
+     * While snapshots are enabled, adds writes of new version tokens of tables written by a batchUpdate to the call.
+     *
+     * @return New tokens by table, or `null`.
+     */
+    private Map<String, String> stampVersions(AbstractGoogleClientRequest<?> request) {
+        SnapshotStore store = snapshotStore;
+
+        if (store == null || !(request instanceof AbstractGoogleJsonClientRequest)) {
+            return null;
         }
 
-        return null;
+        Object content = ((AbstractGoogleJsonClientRequest<?>) request).getJsonContent();
+
+        if (!(content instanceof BatchUpdateSpreadsheetRequest) || ((BatchUpdateSpreadsheetRequest) content).getRequests() == null) {
+            return null;
+        }
+
+        HashMap<String, String> newVersions = new HashMap<>();
+        BatchUpdateSpreadsheetRequest batchUpdate = (BatchUpdateSpreadsheetRequest) content;
+
+        // Replaces the list, because the caller may own it.
+        batchUpdate.setRequests(store.getTableVersions().stamp(batchUpdate.getRequests(), newVersions));
+
+        return newVersions;
     }
 
-    public boolean hasSheet(int sheetId) {
-        List<Sheet> sheets = spreadsheet.getSheets();
+    /**
+     * Keeps the sheet registry up to date with sheets added, deleted or renamed by a batchUpdate,
+     * and versions of tables with tokens written by the batchUpdate.
+     */
+    private void onExecuted(AbstractGoogleClientRequest<?> request, Object response, Map<String, String> newVersions) {
+        SnapshotStore store = snapshotStore;
 
-        if (sheets == null) {
-            return false;
+        if (newVersions != null && store != null) {
+            store.getTableVersions().commit(newVersions);
         }
 
-        for (Sheet sheet : sheets) {
-            SheetProperties properties = sheet.getProperties();
+        if (response instanceof BatchUpdateSpreadsheetResponse && request instanceof AbstractGoogleJsonClientRequest) {
+            Object content = ((AbstractGoogleJsonClientRequest<?>) request).getJsonContent();
 
-            if (properties != null && properties.getSheetId() == sheetId) {
-                return true;
+            if (content instanceof BatchUpdateSpreadsheetRequest) {
+                sheetRegistry.apply(((BatchUpdateSpreadsheetRequest) content).getRequests(), (BatchUpdateSpreadsheetResponse) response);
             }
         }
+    }
+
+    private static <T> T executeCountingBytes(AbstractGoogleClientRequest<T> request, RoundTrip roundTrip) throws IOException {
+        HttpResponse response;
+        SentBytesCounter.begin(roundTrip);
+
+        try {
+            response = request.executeUnparsed();
+        } finally {
+            SentBytesCounter.end();
+        }
+
+        InputStream content = response.getContent();
+
+        if (content == null) {
+            return null;
+        }
+
+        CountingInputStream in = new CountingInputStream(content);
+
+        try {
+            return request.getAbstractGoogleClient()
+                    .getObjectParser()
+                    .parseAndClose(in, response.getContentCharset(), request.getResponseClass());
+        } finally {
+            roundTrip.bytesReceived += in.count;
+        }
+    }
+
+    public String getSpreadsheetId() {
+        return spreadsheet.getSpreadsheetId();
+    }
+
+    public String getSpreadsheetTitle() {
+        return spreadsheetTitle;
+    }
+
+    public Integer getSheetId(String sheetTitle) {
+        return sheetRegistry.getSheetId(sheetTitle);
+    }
+
+    /**
+     * @return Titles of all sheets of the spreadsheet.
+     */
+    public List<String> getSheetTitles() {
+        return sheetRegistry.getTitles();
+    }
 
-        return false;
+    public boolean hasSheet(int sheetId) {
+        return sheetRegistry.hasSheet(sheetId);
     }
 
     /**
-     * Creates an authorized Credential object.
+     * Reads the number of rows of the grid of given sheet, including the header row. A read of values stops
+     * at the last row having values, but the grid bounds every row, e.g.) rows after empty rows.
      *
-     * @param credentialsFile The credentials.json file.
-     * @param httpTransport   The network HTTP Transport.
-     * @return An authorized Credential object.
-     * @throws IOException If the credentials.json file cannot be found.
-     */
-    private static Credential getCredentials(InputStream credentialsFile,
-                                             final NetHttpTransport httpTransport) throws IOException {
-        // Load client secrets.
-        GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JSON_FACTORY, new InputStreamReader(credentialsFile));
-
-        // Build flow and trigger user authorization request.
-        GoogleAuthorizationCodeFlow flow = new GoogleAuthorizationCodeFlow.Builder(
-                httpTransport, JSON_FACTORY, clientSecrets, SCOPES)
-                .setDataStoreFactory(new FileDataStoreFactory(new java.io.File(TOKENS_DIRECTORY_PATH)))
-                .setAccessType("offline")
-                .build();
-        LocalServerReceiver receiver = new LocalServerReceiver.Builder().setPort(8888).build();
-
-        return new AuthorizationCodeInstalledApp(flow, receiver).authorize("user");
+     * @return The number of rows, or 0 if the sheet is not found.
+     */
+    int getRowCount(String sheetTitle) throws IOException {
+        Spreadsheet response = execute(service.spreadsheets()
+                .get(getSpreadsheetId())
+                .setRanges(Collections.singletonList(Table.Grid.range(sheetTitle, "A1")))
+                .setFields("sheets.properties.gridProperties.rowCount"), Operation.GET_SPREADSHEET, sheetTitle);
+
+        if (response.getSheets() == null || response.getSheets().isEmpty()) {
+            return 0;
+        }
+
+        SheetProperties properties = response.getSheets().get(0).getProperties();
+
+        return properties != null && properties.getGridProperties() != null && properties.getGridProperties().getRowCount() != null
+                ? properties.getGridProperties().getRowCount()
+                : 0;
+    }
+
+    SheetRegistry getSheetRegistry() {
+        return sheetRegistry;
+    }
+
+    /**
+     * @return The snapshot store, or `null` if snapshots are disabled.
+     */
+    SnapshotStore getSnapshotStore() {
+        return snapshotStore;
+    }
+
+    void setSnapshotStore(SnapshotStore snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
+
+    TableLocks getTableLocks() {
+        return tableLocks;
+    }
+
+    /**
+     * @return The time of the last call of the Sheets API for given table, or 0 if the table is not called yet.
+     */
+    long getLastAccessMillis(String tableName) {
+        Long millis = lastAccessMillisByTable.get(tableName);
+
+        return millis != null ? millis : 0;
     }
 }
@@ -0,0 +1,33 @@
+package spreadsheetdb.v4;
+
+import java.util.Map;
+
+/**
+ * Metrics of calls of the Sheets API exposed by JMX.
+ *
+ * @see JmxMetricsListener
+ */
+public interface SpreadsheetMetricsMXBean {
+
+    /**
+     * @return Metrics by "operation/table". The table is "*" for calls not for a table.
+     */
+    Map<String, OperationMetrics> getOperations();
+
+    long getRoundTripCount();
+
+    long getErrorCount();
+
+    long getRetryCount();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    /**
+     * @return The time to open the database in milliseconds, from the first call to the loaded catalog of tables.
+     */
+    long getStartupMillis();
+
+    void reset();
+}
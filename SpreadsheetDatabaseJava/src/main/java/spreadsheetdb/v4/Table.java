@@ -1,7 +1,12 @@
 package spreadsheetdb.v4;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Table {
 
@@ -41,19 +46,95 @@ public class Table {
 
         /**
          * @param number The number of a column, not index.
-         * @return A column A1 notation's alphabet.
+         * @return A column A1 notation's alphabet. e.g.) 1="A", 26="Z", 27="AA"
+         * @throws IllegalArgumentException
          */
         public static String columnA1Notation(int number) {
-            return Character.toString((char) (A + number - 1));
+            if (number < 1) {
+                throw new IllegalArgumentException("`number` must be 1 or more.");
+            }
+
+            StringBuilder a1 = new StringBuilder();
+
+            // Bijective base-26: A-Z are 1-26, and there is no digit for 0.
+            while (number > 0) {
+                int digit = (number - 1) % 26;
+                a1.insert(0, (char) (A + digit));
+                number = (number - 1) / 26;
+            }
+
+            return a1.toString();
+        }
+
+        /**
+         * @param cells Cells in A1 notation. e.g.) "A2:C"
+         * @return A range of given sheet. The title is quoted, so that titles with spaces or symbols are valid.
+         */
+        public static String range(String sheetTitle, String cells) {
+            return "'" + sheetTitle.replace("'", "''") + "'!" + cells;
         }
     }
 
+    /**
+     * A declared type of a column used by `QueryRequest.executeColumnar()`.
+     */
+    public enum ColumnType {
+        INT,
+        LONG,
+        DOUBLE,
+        /**
+         * Dictionary-encoded strings. The default type.
+         */
+        STRING
+    }
+
     private final String name;
     private final List<Object> columns;
+    private final ConcurrentHashMap<String, ColumnType> columnTypes = new ConcurrentHashMap<>();
+    private volatile RecordCache recordCache;
+    private final ConcurrentHashMap<String, ColumnIndex> indexes = new ConcurrentHashMap<>();
+    private volatile boolean isSoftDeleteEnabled;
+    private volatile boolean isReplicated;
+    private volatile String primaryKey;
 
     Table(String name, List<Object> columns) {
         this.name = name;
-        this.columns = columns;
+        // Immutable so that the table is shared by threads without locks.
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+    }
+
+    /**
+     * Creates the table replacing `previous` table, e.g.) after migration.
+     * Settings of `previous` table are inherited, but cached rows are not.
+     */
+    Table(String name, List<Object> columns, Table previous) {
+        this(name, columns);
+
+        if (previous != null && previous.recordCache != null) {
+            RecordCache cache = previous.recordCache;
+            recordCache = new RecordCache(cache.getMaxSize(), cache.getTtlMillis());
+        }
+
+        if (previous != null) {
+            isSoftDeleteEnabled = previous.isSoftDeleteEnabled;
+            isReplicated = previous.isReplicated;
+
+            if (previous.primaryKey != null && columns.contains(previous.primaryKey)) {
+                setPrimaryKey(previous.primaryKey);
+            }
+
+            for (Map.Entry<String, ColumnType> entry : previous.columnTypes.entrySet()) {
+                if (columns.contains(entry.getKey())) {
+                    columnTypes.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            for (ColumnIndex index : previous.indexes.values()) {
+                if (columns.contains(index.getColumn())) {
+                    createIndex(index.getColumn(), index.getType());
+                }
+            }
+        }
     }
 
     public String getName() {
@@ -75,4 +156,309 @@ public class Table {
     public String getEndColumnA1Notation() {
         return Grid.columnA1Notation(columns.size());
     }
+
+    /**
+     * @return The last column read by queries. It is the tombstone column in the soft-delete mode.
+     */
+    String getReadEndColumnA1Notation() {
+        return Grid.columnA1Notation(isSoftDeleteEnabled ? getTombstoneColumnIndex() + 1 : columns.size());
+    }
+
+    /**
+     * Enables the soft-delete mode. `BatchDeleteRequest` marks rows with a tombstone in the column after the last column
+     * instead of deleting them, so that rows are not shifted. Queries skip marked rows, and `Compactor` deletes them later.
+     *
+     * @see SpreadsheetDatabase#enableCompaction(long, long, int)
+     */
+    public Table setSoftDeleteEnabled(boolean isSoftDeleteEnabled) {
+        this.isSoftDeleteEnabled = isSoftDeleteEnabled;
+
+        return this;
+    }
+
+    public boolean isSoftDeleteEnabled() {
+        return isSoftDeleteEnabled;
+    }
+
+    int getTombstoneColumnIndex() {
+        return columns.size();
+    }
+
+    /**
+     * Enables the replicated mode. Inserts and updates by `BatchUpdateRequest`, and tombstones of the soft-delete mode,
+     * write a new row version in the column after the tombstone column, so that `Replica` reads changed rows only.
+     * Enable it in every process writing the table.
+     *
+     * @see SpreadsheetDatabase#enableReplica(String, long)
+     */
+    public Table setReplicated(boolean isReplicated) {
+        this.isReplicated = isReplicated;
+
+        return this;
+    }
+
+    public boolean isReplicated() {
+        return isReplicated;
+    }
+
+    int getRowVersionColumnIndex() {
+        return getTombstoneColumnIndex() + 1;
+    }
+
+    /**
+     * @param rowData Values of a row as a query reads them.
+     * @return true if the row is marked with a tombstone.
+     */
+    boolean isTombstoned(List<Object> rowData) {
+        return isSoftDeleteEnabled && rowData.size() > getTombstoneColumnIndex() && Boolean.TRUE.equals(rowData.get(getTombstoneColumnIndex()));
+    }
+
+    /**
+     * Declares the type of given column. Values of the column are read into an array of the type by
+     * `QueryRequest.executeColumnar()`.
+     *
+     * @throws IllegalArgumentException If the column is not found.
+     */
+    public Table setColumnType(String column, ColumnType type) {
+        if (getColumnIndex(column) < 0) {
+            throw new IllegalArgumentException("The column `" + column + "` is not found in `" + name + "`.");
+        }
+
+        columnTypes.put(column, type);
+
+        return this;
+    }
+
+    /**
+     * @return The declared type of given column. `ColumnType.STRING` if it is not declared.
+     */
+    public ColumnType getColumnType(String column) {
+        ColumnType type = columnTypes.get(column);
+
+        return type != null ? type : ColumnType.STRING;
+    }
+
+    /**
+     * Declares the primary key of the table. Its hash index is the map from a key to the row used by
+     * `BatchUpdateRequest.upsert`. Every row must have a unique value in the column.
+     *
+     * @throws IllegalArgumentException If the column is not found.
+     */
+    public Table setPrimaryKey(String column) {
+        createIndex(column, ColumnIndex.Type.HASH);
+        primaryKey = column;
+
+        return this;
+    }
+
+    /**
+     * @return The primary key column, or `null` if it is not declared.
+     */
+    public String getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * @return The index of the primary key. It is created again if it is dropped.
+     */
+    ColumnIndex getPrimaryKeyIndex() {
+        String column = primaryKey;
+
+        return column != null ? createIndex(column, ColumnIndex.Type.HASH) : null;
+    }
+
+    /**
+     * Enables the read-through row cache used by `QueryRequest.all()` and `QueryRequest.findByRowIndex(int)`.
+     *
+     * @param maxSize   The maximum number of cached rows.
+     * @param ttlMillis Time to live of a cached row in milliseconds. If it is 0 or less, rows never expire.
+     * @return The cache.
+     */
+    public RecordCache enableRecordCache(int maxSize, long ttlMillis) {
+        recordCache = new RecordCache(maxSize, ttlMillis);
+
+        return recordCache;
+    }
+
+    public void disableRecordCache() {
+        recordCache = null;
+    }
+
+    /**
+     * @return The row cache, or `null` if the cache is disabled.
+     */
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * Creates a hash index of given column.
+     *
+     * @see #createIndex(String, ColumnIndex.Type)
+     */
+    public ColumnIndex createIndex(String column) {
+        return createIndex(column, ColumnIndex.Type.HASH);
+    }
+
+    /**
+     * Creates an index of given column used by `QueryRequest.findBy` and `QueryRequest.range`.
+     * The index is built by reading the column when it is used first.
+     *
+     * @return The index. If the index of the column exists already, returns it.
+     * @throws IllegalArgumentException If the column is not found.
+     */
+    public ColumnIndex createIndex(String column, ColumnIndex.Type type) {
+        int columnIndex = getColumnIndex(column);
+
+        if (columnIndex < 0) {
+            throw new IllegalArgumentException("The column `" + column + "` is not found in `" + name + "`.");
+        }
+
+        ColumnIndex index = new ColumnIndex(column, columnIndex, type);
+        ColumnIndex existingIndex = indexes.putIfAbsent(column, index);
+
+        return existingIndex != null ? existingIndex : index;
+    }
+
+    public void dropIndex(String column) {
+        indexes.remove(column);
+    }
+
+    /**
+     * @return The index of given column, or `null` if it is not created.
+     */
+    public ColumnIndex getIndex(String column) {
+        return indexes.get(column);
+    }
+
+    /**
+     * @return true if this table holds the state that must follow changes of rows.
+     */
+    boolean isMaintained() {
+        return recordCache != null || !indexes.isEmpty();
+    }
+
+    /**
+     * Rows are appended after the last row with data in any column, which is unknown to indexes, so that they are
+     * built again when they are used next.
+     */
+    void onRecordsInserted(List<Record> records) {
+        RecordCache cache = recordCache;
+
+        if (cache != null) {
+            cache.invalidateWholeTable();
+        }
+
+        for (ColumnIndex index : indexes.values()) {
+            index.invalidate();
+        }
+    }
+
+    /**
+     * Records are inserted, but the row of each record is unknown.
+     */
+    void onRecordsInsertedInAnyOrder(List<Record> records) {
+        onRecordsInserted(records);
+    }
+
+    /**
+     * @param updatedColumns Columns written by record, whose element is `null` if the whole row is written.
+     *                       Cells of other columns of a record may differ from cells of the row.
+     */
+    void onRecordsUpdated(List<Record> records, List<BitSet> updatedColumns) {
+        RecordCache cache = recordCache;
+
+        if (cache != null) {
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+
+                // Skip header
+                if (record.getRowIndex() < 1) {
+                    continue;
+                }
+
+                if (updatedColumns.get(i) == null) {
+                    cache.put(record);
+                } else {
+                    // Other cells of the row are not known, so that the row is read again.
+                    cache.invalidate(record.getRowIndex());
+                }
+            }
+        }
+
+        for (ColumnIndex index : indexes.values()) {
+            ArrayList<Record> indexedRecords = new ArrayList<>(records.size());
+
+            for (int i = 0; i < records.size(); i++) {
+                if (updatedColumns.get(i) == null || updatedColumns.get(i).get(index.getColumnIndex())) {
+                    indexedRecords.add(records.get(i));
+                }
+            }
+
+            if (!indexedRecords.isEmpty()) {
+                index.onUpdated(indexedRecords);
+            }
+        }
+    }
+
+    /**
+     * @param rowIndices Deleted row indices in descending order.
+     */
+    void onRowsDeleted(List<Integer> rowIndices) {
+        RecordCache cache = recordCache;
+
+        if (cache != null && !rowIndices.isEmpty()) {
+            cache.invalidateFrom(rowIndices.get(rowIndices.size() - 1));
+        }
+
+        for (ColumnIndex index : indexes.values()) {
+            index.onDeleted(rowIndices);
+        }
+    }
+
+    /**
+     * Rows are marked with tombstones. Other rows are not shifted.
+     */
+    void onRowsTombstoned(List<Integer> rowIndices) {
+        RecordCache cache = recordCache;
+
+        if (cache != null) {
+            for (Integer rowIndex : rowIndices) {
+                cache.invalidate(rowIndex);
+            }
+
+            cache.invalidateWholeTable();
+        }
+
+        for (ColumnIndex index : indexes.values()) {
+            index.onCleared(rowIndices);
+        }
+    }
+
+    void onTruncated() {
+        RecordCache cache = recordCache;
+
+        if (cache != null) {
+            cache.clear();
+        }
+
+        for (ColumnIndex index : indexes.values()) {
+            index.clear();
+        }
+    }
+
+    /**
+     * Every row is rewritten, e.g.) by migration.
+     */
+    void onRowsRewritten() {
+        RecordCache cache = recordCache;
+
+        if (cache != null) {
+            cache.clear();
+        }
+
+        for (ColumnIndex index : indexes.values()) {
+            index.invalidate();
+        }
+    }
 }
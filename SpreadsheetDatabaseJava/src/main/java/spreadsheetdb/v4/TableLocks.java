@@ -0,0 +1,85 @@
+package spreadsheetdb.v4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read-write locks of tables, striped by table name.
+ * Operations that shift or rewrite rows, e.g.) deletes, truncate and migration, take the write lock of the table,
+ * so that they do not interleave with other operations addressing rows by row index, which take the read lock.
+ * Operations on different tables run in parallel unless their names fall into the same stripe.
+ */
+class TableLocks {
+
+    static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantReadWriteLock[] locks;
+
+    TableLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes The number of locks. It is rounded up to a power of two.
+     */
+    TableLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantReadWriteLock[size];
+
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    ReadWriteLock forTable(String tableName) {
+        return locks[stripeOf(tableName)];
+    }
+
+    int stripeOf(String tableName) {
+        int hash = tableName.hashCode();
+        hash ^= hash >>> 16;
+
+        return hash & (locks.length - 1);
+    }
+
+    /**
+     * Locks tables in the order of stripes, so that threads locking several tables do not deadlock.
+     *
+     * @param isWrite true to take write locks, or false to take read locks.
+     * @return Taken locks. Pass them to `unlockAll`.
+     */
+    List<Lock> lockAll(Collection<String> tableNames, boolean isWrite) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+
+        for (String tableName : tableNames) {
+            stripes.add(stripeOf(tableName));
+        }
+
+        ArrayList<Lock> takenLocks = new ArrayList<>(stripes.size());
+
+        try {
+            for (int stripe : stripes) {
+                Lock lock = isWrite ? locks[stripe].writeLock() : locks[stripe].readLock();
+                lock.lock();
+                takenLocks.add(lock);
+            }
+        } catch (RuntimeException | Error e) {
+            unlockAll(takenLocks);
+
+            throw e;
+        }
+
+        return takenLocks;
+    }
+
+    void unlockAll(List<Lock> takenLocks) {
+        for (int i = takenLocks.size() - 1; i >= 0; i--) {
+            takenLocks.get(i).unlock();
+        }
+    }
+}
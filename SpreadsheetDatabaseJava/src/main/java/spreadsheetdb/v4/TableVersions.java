@@ -0,0 +1,215 @@
+package spreadsheetdb.v4;
+
+import com.google.api.services.sheets.v4.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Version tokens of tables kept in rows of the meta table, `["tableVersion:{table name}", token]`.
+ * While snapshots are enabled, a batchUpdate writing rows of a table writes a new token of the table in the same call,
+ * so that a snapshot taken at a token is known to be up to date if the token is not changed.
+ *
+ * @see SnapshotStore
+ */
+class TableVersions {
+
+    private static final String KEY_PREFIX = "tableVersion:";
+
+    private final SpreadsheetHandler spreadsheetHandler;
+    private final Metadata metadata;
+    private final ConcurrentHashMap<String, Integer> rowIndicesByTable = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> versionsByTable = new ConcurrentHashMap<>();
+
+    TableVersions(SpreadsheetHandler spreadsheetHandler, Metadata metadata) {
+        this.spreadsheetHandler = spreadsheetHandler;
+        this.metadata = metadata;
+    }
+
+    /**
+     * @return The token of given table, or `null` if the table has no version row.
+     */
+    String get(String tableName) {
+        return versionsByTable.get(tableName);
+    }
+
+    boolean has(String tableName) {
+        return rowIndicesByTable.containsKey(tableName);
+    }
+
+    /**
+     * Reads tokens from the meta table, e.g.) to follow writes of other processes.
+     *
+     * @return Names of tables whose tokens differ from the tokens known before.
+     */
+    Set<String> load() throws IOException {
+        List<List<Object>> values = metadata.readKeysAndValues();
+        HashMap<String, Integer> rowIndices = new HashMap<>();
+        HashMap<String, String> versions = new HashMap<>();
+        HashSet<String> changedTables = new HashSet<>();
+
+        for (int i = Metadata.FIRST_FREE_ROW_INDEX; i < values.size(); i++) {
+            String tableName = tableOfKey(values.get(i));
+
+            // The first row of a table is used, as `Metadata.findOrAppend`.
+            if (tableName != null && !rowIndices.containsKey(tableName)) {
+                String version = values.get(i).size() > 1 ? String.valueOf(values.get(i).get(1)) : "";
+                String oldVersion = versionsByTable.get(tableName);
+
+                if (oldVersion != null && !oldVersion.equals(version)) {
+                    changedTables.add(tableName);
+                }
+
+                rowIndices.put(tableName, i);
+                versions.put(tableName, version);
+            }
+        }
+
+        rowIndicesByTable.putAll(rowIndices);
+        versionsByTable.putAll(versions);
+
+        return changedTables;
+    }
+
+    /**
+     * Appends the version row of given table to the meta table. A table having no version row is not versioned.
+     * If another process appends the row of the table at once, the first row and its token are used by both.
+     */
+    void allocate(String tableName) throws IOException {
+        if (has(tableName) || spreadsheetHandler.getSheetId(Metadata.TABLE_NAME) == null) {
+            return;
+        }
+
+        Record record = metadata.findOrAppend(KEY_PREFIX + tableName, newToken());
+
+        rowIndicesByTable.put(tableName, record.getRowIndex());
+        versionsByTable.put(tableName, String.valueOf(record.getValues().get(1)));
+    }
+
+    /**
+     * Adds requests writing new tokens of tables whose rows are written by given requests.
+     *
+     * @return New requests, and new tokens by table to `commit` after the call succeeds.
+     */
+    List<Request> stamp(List<Request> requests, Map<String, String> newVersions) {
+        Integer metaSheetId = spreadsheetHandler.getSheetId(Metadata.TABLE_NAME);
+
+        if (metaSheetId == null || rowIndicesByTable.isEmpty()) {
+            return requests;
+        }
+
+        ArrayList<Request> stampedRequests = new ArrayList<>(requests);
+
+        for (Request request : requests) {
+            String tableName = tableOf(sheetIdOf(request));
+
+            if (tableName == null || newVersions.containsKey(tableName)) {
+                continue;
+            }
+
+            Integer rowIndex = rowIndicesByTable.get(tableName);
+
+            if (rowIndex == null) {
+                continue;
+            }
+
+            String token = newToken();
+            newVersions.put(tableName, token);
+            stampedRequests.add(newVersionRequest(metaSheetId, rowIndex, token));
+        }
+
+        return stampedRequests;
+    }
+
+    void commit(Map<String, String> newVersions) {
+        versionsByTable.putAll(newVersions);
+    }
+
+    /**
+     * Writes a new token of given table in a call, e.g.) after its rows are cleared by a values call.
+     */
+    void bump(String tableName) throws IOException {
+        Integer metaSheetId = spreadsheetHandler.getSheetId(Metadata.TABLE_NAME);
+        Integer rowIndex = rowIndicesByTable.get(tableName);
+
+        if (metaSheetId == null || rowIndex == null) {
+            return;
+        }
+
+        String token = newToken();
+
+        BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
+                .setRequests(Collections.singletonList(newVersionRequest(metaSheetId, rowIndex, token)));
+
+        BatchUpdateSpreadsheetResponse response = spreadsheetHandler.execute(spreadsheetHandler.getService()
+                .spreadsheets()
+                .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request), Operation.UPDATE, Metadata.TABLE_NAME);
+
+        versionsByTable.put(tableName, token);
+    }
+
+    private static String tableOfKey(List<Object> rowData) {
+        if (rowData.isEmpty() || !(rowData.get(0) instanceof String) || !((String) rowData.get(0)).startsWith(KEY_PREFIX)) {
+            return null;
+        }
+
+        return ((String) rowData.get(0)).substring(KEY_PREFIX.length());
+    }
+
+    private String tableOf(Integer sheetId) {
+        if (sheetId == null) {
+            return null;
+        }
+
+        SheetProperties properties = spreadsheetHandler.getSheetRegistry().getProperties(sheetId);
+
+        return properties != null && !Metadata.TABLE_NAME.equals(properties.getTitle()) ? properties.getTitle() : null;
+    }
+
+    private static Integer sheetIdOf(Request request) {
+        if (request.getAppendCells() != null) {
+            return request.getAppendCells().getSheetId();
+        }
+
+        if (request.getUpdateCells() != null && request.getUpdateCells().getRange() != null) {
+            return request.getUpdateCells().getRange().getSheetId();
+        }
+
+        if (request.getDeleteDimension() != null && request.getDeleteDimension().getRange() != null) {
+            return request.getDeleteDimension().getRange().getSheetId();
+        }
+
+        if (request.getDeleteSheet() != null) {
+            return request.getDeleteSheet().getSheetId();
+        }
+
+        return null;
+    }
+
+    private static Request newVersionRequest(int metaSheetId, int rowIndex, String token) {
+        return new Request()
+                .setUpdateCells(new UpdateCellsRequest()
+                        .setRange(new GridRange()
+                                .setSheetId(metaSheetId)
+                                .setStartRowIndex(rowIndex)
+                                .setEndRowIndex(rowIndex + 1)
+                                .setStartColumnIndex(1)
+                                .setEndColumnIndex(2))
+                        .setFields("userEnteredValue")
+                        .setRows(Collections.singletonList(new RowData()
+                                .setValues(Collections.singletonList(new CellData()
+                                        .setUserEnteredValue(new ExtendedValue().setStringValue(token)))))));
+    }
+
+    private static String newToken() {
+        return Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+}
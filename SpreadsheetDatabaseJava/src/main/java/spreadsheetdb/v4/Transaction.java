@@ -0,0 +1,191 @@
+package spreadsheetdb.v4;
+
+import com.google.api.services.sheets.v4.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Inserts, updates and deletes on any tables committed in a batchUpdate call. Sheets applies all requests
+ * of a batchUpdate or none of them.
+ * <p>
+ * Requests are ordered so that row indices of records stay valid: updates first, then deletes from the last row
+ * of each table, or tombstones in the soft-delete mode, then inserts appended to the end of tables.
+ * The transaction is not split, so its payload must fit in a batchUpdate call.
+ *
+ * @see SpreadsheetDatabase#transaction()
+ */
+public class Transaction {
+
+    private final SpreadsheetDatabase database;
+    private final SpreadsheetHandler spreadsheetHandler;
+    private final LinkedHashMap<String, BatchUpdateRequest> updateRequests = new LinkedHashMap<>();
+    private final LinkedHashMap<String, TreeSet<Integer>> deletedRowIndices = new LinkedHashMap<>();
+    private final LinkedHashMap<String, BatchUpdateRequest> insertRequests = new LinkedHashMap<>();
+
+    Transaction(SpreadsheetDatabase database, SpreadsheetHandler spreadsheetHandler) {
+        this.database = database;
+        this.spreadsheetHandler = spreadsheetHandler;
+    }
+
+    public Transaction insert(String tableName, Record record) {
+        requestOf(insertRequests, tableName).insert(record);
+
+        return this;
+    }
+
+    public Transaction update(String tableName, Record record) {
+        requestOf(updateRequests, tableName).update(record);
+
+        return this;
+    }
+
+    /**
+     * Deletes the row of given record. A row deleted twice is deleted once.
+     */
+    public Transaction delete(String tableName, Record record) {
+        tableOf(tableName);
+
+        TreeSet<Integer> rowIndices = deletedRowIndices.get(tableName);
+
+        if (rowIndices == null) {
+            rowIndices = new TreeSet<>(Collections.reverseOrder());
+            deletedRowIndices.put(tableName, rowIndices);
+        }
+
+        rowIndices.add(record.getRowIndex());
+
+        return this;
+    }
+
+    /**
+     * Executes the transaction on the executor of the database.
+     */
+    public CompletableFuture<Void> executeAsync() {
+        return spreadsheetHandler.executeAsync(new SpreadsheetHandler.Task<Void>() {
+
+            @Override
+            public Void execute() throws IOException {
+                Transaction.this.execute();
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Commits the transaction. If it fails, no table is changed.
+     */
+    public void execute() throws IOException {
+        TreeSet<String> tableNames = new TreeSet<>();
+        tableNames.addAll(updateRequests.keySet());
+        tableNames.addAll(deletedRowIndices.keySet());
+        tableNames.addAll(insertRequests.keySet());
+
+        if (tableNames.isEmpty()) {
+            return;
+        }
+
+        boolean isRowShifted = false;
+
+        for (String tableName : deletedRowIndices.keySet()) {
+            isRowShifted |= !tableOf(tableName).isSoftDeleteEnabled();
+        }
+
+        // Deletes shift rows, so that tables deleting rows are locked as BatchDeleteRequest.
+        if (isRowShifted) {
+            for (String tableName : deletedRowIndices.keySet()) {
+                spreadsheetHandler.flushWriteBehind(tableName);
+            }
+        }
+
+        List<Lock> locks = spreadsheetHandler.getTableLocks().lockAll(tableNames, isRowShifted);
+
+        try {
+            ArrayList<Request> requests = new ArrayList<>();
+
+            for (BatchUpdateRequest updateRequest : updateRequests.values()) {
+                requests.addAll(updateRequest.requests);
+            }
+
+            for (Map.Entry<String, TreeSet<Integer>> entry : deletedRowIndices.entrySet()) {
+                Table table = tableOf(entry.getKey());
+                ArrayList<Integer> rowIndices = new ArrayList<>(entry.getValue());
+
+                requests.addAll(table.isSoftDeleteEnabled()
+                        ? BatchDeleteRequest.buildTombstoneRequests(sheetIdOf(entry.getKey()), table, rowIndices)
+                        : BatchDeleteRequest.buildRequests(sheetIdOf(entry.getKey()), rowIndices));
+            }
+
+            for (BatchUpdateRequest insertRequest : insertRequests.values()) {
+                requests.addAll(insertRequest.requests);
+            }
+
+            BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
+                    .setRequests(requests);
+
+            BatchUpdateSpreadsheetResponse response = spreadsheetHandler.execute(spreadsheetHandler.getService()
+                    .spreadsheets()
+                    .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request), Operation.TRANSACTION, tableNames.size() == 1 ? tableNames.first() : null);
+
+            // Applied in the order of the requests.
+            for (BatchUpdateRequest updateRequest : updateRequests.values()) {
+                updateRequest.onExecuted(true);
+            }
+
+            for (Map.Entry<String, TreeSet<Integer>> entry : deletedRowIndices.entrySet()) {
+                Table table = tableOf(entry.getKey());
+
+                if (table.isSoftDeleteEnabled()) {
+                    table.onRowsTombstoned(new ArrayList<>(entry.getValue()));
+                } else {
+                    table.onRowsDeleted(new ArrayList<>(entry.getValue()));
+                }
+            }
+
+            for (BatchUpdateRequest insertRequest : insertRequests.values()) {
+                insertRequest.onExecuted(true);
+            }
+        } finally {
+            spreadsheetHandler.getTableLocks().unlockAll(locks);
+        }
+    }
+
+    private BatchUpdateRequest requestOf(Map<String, BatchUpdateRequest> requests, String tableName) {
+        BatchUpdateRequest request = requests.get(tableName);
+
+        if (request == null) {
+            request = new BatchUpdateRequest(tableOf(tableName), spreadsheetHandler);
+            requests.put(tableName, request);
+        }
+
+        return request;
+    }
+
+    private Table tableOf(String tableName) {
+        Table table = database.getTable(tableName);
+
+        if (table == null || spreadsheetHandler.getSheetId(tableName) == null) {
+            throw new IllegalArgumentException("The table `" + tableName + "` is not found.");
+        }
+
+        return table;
+    }
+
+    private int sheetIdOf(String tableName) {
+        Integer sheetId = spreadsheetHandler.getSheetId(tableName);
+
+        if (sheetId == null) {
+            throw new IllegalStateException("The table `" + tableName + "` is not found.");
+        }
+
+        return sheetId;
+    }
+}
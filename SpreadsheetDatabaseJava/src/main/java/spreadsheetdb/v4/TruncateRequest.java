@@ -4,6 +4,8 @@ import com.google.api.services.sheets.v4.model.ClearValuesRequest;
 import com.google.api.services.sheets.v4.model.ClearValuesResponse;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
 
 public class TruncateRequest {
 
@@ -15,13 +17,49 @@ public class TruncateRequest {
         this.spreadsheetHandler = spreadsheetHandler;
     }
 
+    /**
+     * Executes the request on the executor of the database.
+     */
+    public CompletableFuture<Void> executeAsync() {
+        return spreadsheetHandler.executeAsync(new SpreadsheetHandler.Task<Void>() {
+
+            @Override
+            public Void execute() throws IOException {
+                TruncateRequest.this.execute();
+
+                return null;
+            }
+        });
+    }
+
     public void execute() throws IOException {
-        String range = table.getName() + "!A2:" + table.getEndColumnA1Notation();
+        spreadsheetHandler.flushWriteBehind(table.getName());
+
+        Lock lock = spreadsheetHandler.getTableLocks().forTable(table.getName()).writeLock();
+        lock.lock();
+
+        try {
+            // The row version column is cleared too, so that replicas drop the rows, and appends start from the row 2.
+            String endColumn = table.isReplicated()
+                    ? Table.Grid.columnA1Notation(table.getRowVersionColumnIndex() + 1)
+                    : table.getReadEndColumnA1Notation();
+            String range = Table.Grid.range(table.getName(), "A2:" + endColumn);
+
+            ClearValuesResponse response = spreadsheetHandler.execute(spreadsheetHandler.getService()
+                    .spreadsheets()
+                    .values()
+                    .clear(spreadsheetHandler.getSpreadsheetId(), range, new ClearValuesRequest()), Operation.TRUNCATE, table.getName());
+
+            table.onTruncated();
+
+            SnapshotStore snapshotStore = spreadsheetHandler.getSnapshotStore();
 
-        ClearValuesResponse response = spreadsheetHandler.getService()
-                .spreadsheets()
-                .values()
-                .clear(spreadsheetHandler.getSpreadsheetId(), range, new ClearValuesRequest())
-                .execute();
+            if (snapshotStore != null) {
+                // Clearing values is not a batchUpdate, so the version is written by another call.
+                snapshotStore.getTableVersions().bump(table.getName());
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 }
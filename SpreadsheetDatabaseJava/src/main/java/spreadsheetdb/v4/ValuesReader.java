@@ -0,0 +1,127 @@
+package spreadsheetdb.v4;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads rows of a `ValueRange` response with a streaming parser. Each row is passed to a handler as soon as it is read,
+ * with typed values as `Record.normalize` returns, so values are not parsed into a tree and copied again.
+ * Empty rows are skipped.
+ */
+class ValuesReader {
+
+    interface RowHandler {
+
+        /**
+         * @param position The position of the row in the range, counting empty rows.
+         * @param rowData  Values of a row that is not empty. The handler may keep it.
+         */
+        void onRow(int position, List<Object> rowData);
+    }
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final RowHandler rowHandler;
+    private int rowCount;
+    private long cellCount;
+
+    ValuesReader(RowHandler rowHandler) {
+        this.rowHandler = rowHandler;
+    }
+
+    /**
+     * @return The number of rows passed to the handler.
+     */
+    int getRowCount() {
+        return rowCount;
+    }
+
+    long getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Reads given response of `values().get`. The stream is not closed.
+     */
+    void read(InputStream in) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(in);
+
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("The response is not a JSON object.");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if ("values".equals(field) && token == JsonToken.START_ARRAY) {
+                    readRows(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    private void readRows(JsonParser parser) throws IOException {
+        int position = 0;
+        JsonToken token;
+
+        while ((token = parser.nextToken()) == JsonToken.START_ARRAY) {
+            ArrayList<Object> rowData = null;
+
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (rowData == null) {
+                    rowData = new ArrayList<>();
+                }
+
+                rowData.add(readValue(parser, token));
+            }
+
+            // Excludes empty row.
+            if (rowData != null) {
+                rowCount++;
+                cellCount += rowData.size();
+                rowHandler.onRow(position, rowData);
+            }
+
+            position++;
+        }
+
+        if (token != JsonToken.END_ARRAY) {
+            throw new IOException("`values` of the response is not an array of rows.");
+        }
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                    return Record.normalize(parser.getBigIntegerValue());
+                }
+
+                return parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return Record.normalize(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return "";
+            default:
+                throw new IOException("Unexpected " + token + " in a row of the response.");
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package spreadsheetdb.v4;
+
+import com.google.api.services.sheets.v4.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Queues update requests of any tables and sends them together in a batchUpdate call,
+ * when the number of queued requests reaches `maxRequests` or `maxDelayMillis` passed since the first request is queued.
+ * Requests are written in the read locks of their tables, and requests of a table are flushed before its rows are
+ * shifted, so that they are not interleaved with deletes, truncate, migration and compaction of the table.
+ */
+class WriteBehindQueue {
+
+    private static class Entry {
+
+        final SpreadsheetHandler spreadsheetHandler;
+        final String tableName;
+        final List<Request> requests;
+        final Runnable onCommitted;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Entry(SpreadsheetHandler spreadsheetHandler, String tableName, List<Request> requests, Runnable onCommitted) {
+            this.spreadsheetHandler = spreadsheetHandler;
+            this.tableName = tableName;
+            this.requests = requests;
+            this.onCommitted = onCommitted;
+        }
+
+        /**
+         * @return The last request, or the last row of the last request appending cells, which is written last.
+         *         Requests are merged and split by rows, but their rows are not copied.
+         */
+        Object lastPart() {
+            for (int i = requests.size() - 1; i >= 0; i--) {
+                AppendCellsRequest appendCells = requests.get(i).getAppendCells();
+
+                if (appendCells == null || appendCells.getRows() == null) {
+                    return requests.get(i);
+                }
+
+                if (!appendCells.getRows().isEmpty()) {
+                    return appendCells.getRows().get(appendCells.getRows().size() - 1);
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private final int maxRequests;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Object flushLock = new Object();
+    private ArrayList<Entry> pendingEntries = new ArrayList<>();
+    private int pendingRequestCount;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean isShutdown;
+
+    WriteBehindQueue(int maxRequests, long maxDelayMillis) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("`maxRequests` must be 1 or more.");
+        }
+
+        this.maxRequests = maxRequests;
+        this.maxDelayMillis = maxDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "spreadsheetdb-write-behind");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param onCommitted Called when the requests are written, before the future is completed.
+     * @return A future completed when the requests are written.
+     */
+    CompletableFuture<Void> add(SpreadsheetHandler spreadsheetHandler, String tableName, List<Request> requests, Runnable onCommitted) {
+        Entry entry = new Entry(spreadsheetHandler, tableName, requests, onCommitted);
+
+        synchronized (this) {
+            if (isShutdown) {
+                entry.future.completeExceptionally(new IllegalStateException("The write-behind queue is shut down."));
+
+                return entry.future;
+            }
+
+            pendingEntries.add(entry);
+            pendingRequestCount += requests.size();
+
+            if (pendingRequestCount >= maxRequests) {
+                cancelScheduledFlush();
+                scheduler.execute(newFlushTask());
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(newFlushTask(), maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return entry.future;
+    }
+
+    synchronized int getPendingRequestCount() {
+        return pendingRequestCount;
+    }
+
+    /**
+     * Sends queued requests now and waits until they are written.
+     *
+     * @throws IOException If the batchUpdate call fails.
+     */
+    void flush() throws IOException {
+        synchronized (flushLock) {
+            List<Entry> entries = takePendingEntries();
+
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            commit(entries);
+        }
+    }
+
+    /**
+     * Sends queued requests of given table now and waits until they are written.
+     * Requests of other tables are left in the queue.
+     *
+     * @throws IOException If the batchUpdate call fails.
+     */
+    void flush(String tableName) throws IOException {
+        synchronized (flushLock) {
+            List<Entry> entries = takePendingEntries(tableName);
+
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            commit(entries);
+        }
+    }
+
+    /**
+     * Flushes queued requests and stops the background flusher.
+     */
+    void shutdown() throws IOException {
+        synchronized (this) {
+            isShutdown = true;
+            cancelScheduledFlush();
+        }
+
+        try {
+            flush();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private Runnable newFlushTask() {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    // The exception is passed to the futures.
+                }
+            }
+        };
+    }
+
+    private synchronized List<Entry> takePendingEntries() {
+        List<Entry> entries = pendingEntries;
+        pendingEntries = new ArrayList<>();
+        pendingRequestCount = 0;
+        cancelScheduledFlush();
+
+        return entries;
+    }
+
+    private synchronized List<Entry> takePendingEntries(String tableName) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        ArrayList<Entry> otherEntries = new ArrayList<>();
+
+        for (Entry entry : pendingEntries) {
+            if (tableName.equals(entry.tableName)) {
+                entries.add(entry);
+                pendingRequestCount -= entry.requests.size();
+            } else {
+                otherEntries.add(entry);
+            }
+        }
+
+        pendingEntries = otherEntries;
+
+        if (pendingEntries.isEmpty()) {
+            cancelScheduledFlush();
+        }
+
+        return entries;
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    /**
+     * Writes requests of given entries in order. An entry is committed as soon as the chunk having its last request is
+     * written, so that entries written before a failed chunk are not failed.
+     */
+    private void commit(List<Entry> entries) throws IOException {
+        ArrayList<Request> requests = new ArrayList<>();
+        TreeSet<String> tableNames = new TreeSet<>();
+
+        for (Entry entry : entries) {
+            for (Request request : entry.requests) {
+                merge(requests, request);
+            }
+
+            tableNames.add(entry.tableName);
+        }
+
+        SpreadsheetHandler spreadsheetHandler = entries.get(entries.size() - 1).spreadsheetHandler;
+        List<Lock> locks = spreadsheetHandler.getTableLocks().lockAll(tableNames, false);
+        Set<Object> writtenParts = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        int committedCount = 0;
+
+        try {
+            List<List<Request>> chunks = BatchUpdateRequest.split(requests,
+                    BatchUpdateRequest.DEFAULT_MAX_REQUEST_BYTES,
+                    BatchUpdateRequest.DEFAULT_MAX_ROWS_PER_REQUEST);
+
+            for (List<Request> chunk : chunks) {
+                BatchUpdateSpreadsheetRequest request = new BatchUpdateSpreadsheetRequest()
+                        .setRequests(chunk);
+
+                BatchUpdateSpreadsheetResponse response = spreadsheetHandler.execute(spreadsheetHandler.getService()
+                        .spreadsheets()
+                        .batchUpdate(spreadsheetHandler.getSpreadsheetId(), request), Operation.UPDATE, null);
+
+                for (Request written : chunk) {
+                    AppendCellsRequest appendCells = written.getAppendCells();
+
+                    if (appendCells == null || appendCells.getRows() == null) {
+                        writtenParts.add(written);
+                    } else {
+                        writtenParts.addAll(appendCells.getRows());
+                    }
+                }
+
+                while (committedCount < entries.size()) {
+                    Entry entry = entries.get(committedCount);
+                    Object lastPart = entry.lastPart();
+
+                    if (lastPart != null && !writtenParts.contains(lastPart)) {
+                        break;
+                    }
+
+                    onCommitted(entry);
+                    committedCount++;
+                }
+            }
+
+            // Entries having no requests.
+            while (committedCount < entries.size()) {
+                onCommitted(entries.get(committedCount++));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (int i = committedCount; i < entries.size(); i++) {
+                entries.get(i).future.completeExceptionally(e);
+            }
+
+            throw e;
+        } finally {
+            spreadsheetHandler.getTableLocks().unlockAll(locks);
+        }
+    }
+
+    private static void onCommitted(Entry entry) {
+        try {
+            entry.onCommitted.run();
+            entry.future.complete(null);
+        } catch (RuntimeException e) {
+            entry.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Adds given request. If the last request appends cells to the same sheet, rows are merged into a new AppendCells.
+     */
+    private static void merge(List<Request> requests, Request request) {
+        AppendCellsRequest appendCells = request.getAppendCells();
+        AppendCellsRequest lastAppendCells = requests.isEmpty() ? null : requests.get(requests.size() - 1).getAppendCells();
+
+        if (appendCells != null && lastAppendCells != null
+                && appendCells.getSheetId() != null && appendCells.getSheetId().equals(lastAppendCells.getSheetId())
+                && appendCells.getFields() != null && appendCells.getFields().equals(lastAppendCells.getFields())) {
+
+            ArrayList<RowData> rows = new ArrayList<>(lastAppendCells.getRows());
+            rows.addAll(appendCells.getRows());
+
+            requests.set(requests.size() - 1, new Request()
+                    .setAppendCells(new AppendCellsRequest()
+                            .setSheetId(lastAppendCells.getSheetId())
+                            .setFields(lastAppendCells.getFields())
+                            .setRows(rows)));
+        } else {
+            requests.add(request);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package spreadsheetdb.v4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchDeleteRequestTest {
+
+    private static final List<Object> COLUMNS = Arrays.<Object>asList("id", "name");
+
+    private FakeSheetsTransport transport;
+    private SpreadsheetHandler spreadsheetHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FakeSheetsTransport();
+        transport.putSheet("member", COLUMNS, Arrays.<List<Object>>asList(
+                row(1L, "a"), row(2L, "x"), row(), row(), row(5L, "x"), row(6L, "f")));
+        spreadsheetHandler = transport.newHandler();
+    }
+
+    @Test
+    public void deletesRowsByRowIndices() throws Exception {
+        new BatchDeleteRequest(new Table("member", COLUMNS), spreadsheetHandler)
+                .setRecords(new ArrayList<>(Arrays.asList(new Record(1), new Record(6))))
+                .execute();
+
+        assertEquals(Arrays.asList(COLUMNS, row(2L, "x"), row(), row(), row(5L, "x")), transport.getRows("member"));
+    }
+
+    @Test
+    public void deletesMatchedRowsAfterEmptyRows() throws Exception {
+        new BatchDeleteRequest(new Table("member", COLUMNS), spreadsheetHandler)
+                .deleteWhere(new Predicate<Record>() {
+
+                    @Override
+                    public boolean test(Record record) {
+                        return "x".equals(record.getString(1));
+                    }
+                })
+                .setPageSize(2)
+                .execute();
+
+        assertEquals(Arrays.asList(COLUMNS, row(1L, "a"), row(), row(), row(6L, "f")), transport.getRows("member"));
+    }
+
+    @Test
+    public void tombstonesRowsInSoftDeleteMode() throws Exception {
+        Table table = new Table("member", COLUMNS).setSoftDeleteEnabled(true);
+        table.createIndex("name");
+
+        assertEquals(2, new QueryRequest(table, spreadsheetHandler).findBy("name", "x").execute().size());
+
+        new BatchDeleteRequest(table, spreadsheetHandler)
+                .setRecords(new ArrayList<>(Arrays.asList(new Record(2))))
+                .execute();
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).all().execute();
+        List<Record> foundRecords = new QueryRequest(table, spreadsheetHandler).findBy("name", "x").execute();
+
+        // Following rows are not shifted.
+        assertEquals(7, transport.getRows("member").size());
+        assertEquals(Boolean.TRUE, transport.getRows("member").get(2).get(table.getTombstoneColumnIndex()));
+        assertEquals(3, records.size());
+        assertEquals(1, foundRecords.size());
+        assertEquals(5, foundRecords.get(0).getRowIndex());
+    }
+
+    @Test
+    public void tombstonesMatchedRowsInSoftDeleteMode() throws Exception {
+        Table table = new Table("member", COLUMNS).setSoftDeleteEnabled(true);
+
+        new BatchDeleteRequest(table, spreadsheetHandler)
+                .deleteWhere(new Predicate<Record>() {
+
+                    @Override
+                    public boolean test(Record record) {
+                        return true;
+                    }
+                })
+                .execute();
+
+        assertTrue(new QueryRequest(table, spreadsheetHandler).all().execute().isEmpty());
+    }
+
+    private static List<Object> row(Object... values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,163 @@
+package spreadsheetdb.v4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchUpdateRequestTest {
+
+    private static final List<Object> COLUMNS = Arrays.<Object>asList("id", "name");
+
+    private FakeSheetsTransport transport;
+    private SpreadsheetHandler spreadsheetHandler;
+    private Table table;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FakeSheetsTransport();
+        transport.putSheet("member", COLUMNS, Arrays.<List<Object>>asList(row(1L, "a"), row(2L, "b")));
+        spreadsheetHandler = transport.newHandler();
+        table = new Table("member", COLUMNS).setPrimaryKey("id");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        WriteBehindQueue writeBehindQueue = spreadsheetHandler.getWriteBehindQueue();
+
+        if (writeBehindQueue != null) {
+            writeBehindQueue.shutdown();
+        }
+
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void upsertUpdatesOrInsertsByKey() throws Exception {
+        new BatchUpdateRequest(table, spreadsheetHandler)
+                .upsert(new Record(Arrays.<Object>asList(2L, "updated")))
+                .upsert(new Record(Arrays.<Object>asList(3L, "inserted")))
+                .upsert(new Record(Arrays.<Object>asList(3L, "inserted twice")))
+                .execute();
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).all().execute();
+
+        assertEquals(3, records.size());
+        assertEquals("updated", records.get(1).getString(1));
+        assertEquals("inserted twice", records.get(2).getString(1));
+    }
+
+    @Test
+    public void upsertsBuiltBeforeExecutionAppendOnce() throws Exception {
+        BatchUpdateRequest request1 = new BatchUpdateRequest(table, spreadsheetHandler).upsert(new Record(Arrays.<Object>asList(3L, "first")));
+        BatchUpdateRequest request2 = new BatchUpdateRequest(table, spreadsheetHandler).upsert(new Record(Arrays.<Object>asList(3L, "second")));
+
+        request1.execute();
+        request2.execute();
+
+        assertEquals(1, countRowsOf(3L));
+        assertEquals("second", new QueryRequest(table, spreadsheetHandler).findBy("id", 3L).execute().get(0).getString(1));
+    }
+
+    @Test
+    public void concurrentUpsertsAppendOnce() throws Exception {
+        ArrayList<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 16; i++) {
+            futures.add(new BatchUpdateRequest(table, spreadsheetHandler).upsert(new Record(Arrays.<Object>asList(3L, "name" + i))).executeAsync());
+        }
+
+        for (CompletableFuture<Void> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, countRowsOf(3L));
+    }
+
+    @Test
+    public void enqueuedUpsertsAppendOnce() throws Exception {
+        spreadsheetHandler.setWriteBehindQueue(new WriteBehindQueue(1000, 60000));
+
+        CompletableFuture<Void> future1 = new BatchUpdateRequest(table, spreadsheetHandler).upsert(new Record(Arrays.<Object>asList(3L, "first"))).enqueue();
+        CompletableFuture<Void> future2 = new BatchUpdateRequest(table, spreadsheetHandler).upsert(new Record(Arrays.<Object>asList(3L, "second"))).enqueue();
+        spreadsheetHandler.flushWriteBehind("member");
+        future1.get(10, TimeUnit.SECONDS);
+        future2.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, countRowsOf(3L));
+        assertEquals("second", new QueryRequest(table, spreadsheetHandler).findBy("id", 3L).execute().get(0).getString(1));
+    }
+
+    @Test
+    public void splitsRequestsInOrder() throws Exception {
+        BatchUpdateRequest request = new BatchUpdateRequest(table, spreadsheetHandler).setMaxRowsPerRequest(2);
+
+        for (long id = 3; id <= 7; id++) {
+            request.insert(new Record(Arrays.<Object>asList(id, "name" + id)));
+        }
+
+        int requestCount = transport.getRequestCount();
+        request.execute();
+
+        assertEquals(requestCount + 3, transport.getRequestCount());
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).all().execute();
+
+        assertEquals(7, records.size());
+
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i + 1, records.get(i).getLong(0));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void parallelRequestsOnBoundedExecutorDoNotDeadlock() throws Exception {
+        executor = Executors.newFixedThreadPool(2);
+        spreadsheetHandler.setExecutor(executor);
+        ArrayList<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 2; i++) {
+            BatchUpdateRequest request = new BatchUpdateRequest(table, spreadsheetHandler).setParallelism(2).setMaxRowsPerRequest(1);
+
+            for (int j = 0; j < 4; j++) {
+                request.insert(new Record(Arrays.<Object>asList(100L + i * 10 + j, "name")));
+            }
+
+            futures.add(request.executeAsync());
+        }
+
+        for (CompletableFuture<Void> future : futures) {
+            future.get();
+        }
+
+        assertEquals(10, new QueryRequest(table, spreadsheetHandler).all().execute().size());
+    }
+
+    private int countRowsOf(Object id) {
+        int count = 0;
+
+        for (List<Object> rowData : transport.getRows("member")) {
+            if (!rowData.isEmpty() && ColumnIndex.key(id).equals(ColumnIndex.key(rowData.get(0)))) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private static List<Object> row(Object... values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,107 @@
+package spreadsheetdb.v4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnIndexTest {
+
+    private static final List<Object> COLUMNS = Arrays.<Object>asList("id", "nick");
+
+    private FakeSheetsTransport transport;
+    private SpreadsheetHandler spreadsheetHandler;
+    private Table table;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FakeSheetsTransport();
+        table = new Table("member", COLUMNS);
+    }
+
+    @Test
+    public void findsRowsByValue() throws Exception {
+        open(Arrays.<List<Object>>asList(row(1L, "a"), row(2L, "b"), row(3L, "a")));
+        table.createIndex("nick");
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).findBy("nick", "a").execute();
+        int requestCount = transport.getRequestCount();
+
+        assertEquals(2, records.size());
+        assertEquals(1, records.get(0).getRowIndex());
+        assertEquals(3, records.get(1).getRowIndex());
+
+        new QueryRequest(table, spreadsheetHandler).findBy("nick", "b").execute();
+
+        // The index is built once, and rows are read by their ranges.
+        assertEquals(requestCount + 1, transport.getRequestCount());
+    }
+
+    @Test
+    public void findsNumbersByAnyRepresentation() throws Exception {
+        open(Arrays.<List<Object>>asList(row(1L, "a"), row(2L, "b")));
+        table.createIndex("id");
+
+        assertEquals(1, new QueryRequest(table, spreadsheetHandler).findBy("id", "2.0").execute().size());
+        assertEquals(1, new QueryRequest(table, spreadsheetHandler).findBy("id", 2).execute().size());
+    }
+
+    @Test
+    public void followsUpdatesAndDeletes() throws Exception {
+        open(Arrays.<List<Object>>asList(row(1L, "a"), row(2L, "b"), row(3L, "c")));
+        table.createIndex("nick");
+        new QueryRequest(table, spreadsheetHandler).findBy("nick", "a").execute();
+
+        new BatchUpdateRequest(table, spreadsheetHandler).update(new Record(2, Arrays.<Object>asList(2L, "z"))).execute();
+        new BatchDeleteRequest(table, spreadsheetHandler).setRecords(new ArrayList<>(Arrays.asList(new Record(1)))).execute();
+
+        assertTrue(new QueryRequest(table, spreadsheetHandler).findBy("nick", "b").execute().isEmpty());
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).findBy("nick", "c").execute();
+
+        assertEquals(1, records.size());
+        assertEquals(2, records.get(0).getRowIndex());
+        assertEquals(1, new QueryRequest(table, spreadsheetHandler).findBy("nick", "z").execute().get(0).getRowIndex());
+    }
+
+    @Test
+    public void findsRowInsertedAfterEmptyCells() throws Exception {
+        open(Arrays.<List<Object>>asList(row(1L, "x"), row(2L, ""), row(3L, "")));
+        table.createIndex("nick");
+        new QueryRequest(table, spreadsheetHandler).findBy("nick", "x").execute();
+
+        new BatchUpdateRequest(table, spreadsheetHandler).insert(new Record(Arrays.<Object>asList(4L, "z"))).execute();
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).findBy("nick", "z").execute();
+
+        assertEquals(1, records.size());
+        assertEquals(4, records.get(0).getRowIndex());
+        assertEquals(Arrays.<Object>asList(4L, "z"), records.get(0).getValues());
+    }
+
+    @Test
+    public void findsRowsInRange() throws Exception {
+        open(Arrays.<List<Object>>asList(row(5L, "a"), row(1L, "b"), row(3L, "c")));
+        table.createIndex("id", ColumnIndex.Type.SORTED);
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).range("id", 2, 5).execute();
+
+        assertEquals(2, records.size());
+        assertEquals("c", records.get(0).getString(1));
+        assertEquals("a", records.get(1).getString(1));
+    }
+
+    private void open(List<List<Object>> rows) throws Exception {
+        transport.putSheet("member", COLUMNS, rows);
+        spreadsheetHandler = transport.newHandler();
+    }
+
+    private static List<Object> row(Object... values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+}
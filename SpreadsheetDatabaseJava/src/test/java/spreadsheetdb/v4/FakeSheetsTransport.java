@@ -0,0 +1,520 @@
+package spreadsheetdb.v4;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-process fake of the Sheets API endpoints used by this library:
+ * `values.get`, `values.batchGet`, `values.update`, `values.clear`, `batchUpdate`, `spreadsheets.get` and `create`.
+ * Sheets are held in memory. Only the behavior this library depends on is implemented.
+ */
+public class FakeSheetsTransport extends MockHttpTransport {
+
+    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+    private static final String SPREADSHEET_ID = "fake-spreadsheet";
+
+    private static class FakeSheet {
+
+        int sheetId;
+        String title;
+        final ArrayList<List<Object>> rows = new ArrayList<>();
+
+        FakeSheet(int sheetId, String title) {
+            this.sheetId = sheetId;
+            this.title = title;
+        }
+    }
+
+    /**
+     * A1 notation range. Indices are 0-based and end indices are exclusive.
+     */
+    private static class A1Range {
+
+        String title;
+        int startRow;
+        int endRow = Integer.MAX_VALUE;
+        int startColumn;
+        int endColumn = Integer.MAX_VALUE;
+
+        static A1Range parse(String range) {
+            A1Range a1Range = new A1Range();
+            int separator = range.lastIndexOf('!');
+            a1Range.title = unquote(separator >= 0 ? range.substring(0, separator) : range);
+
+            if (separator < 0) {
+                return a1Range;
+            }
+
+            String[] cells = range.substring(separator + 1).split(":");
+            int[] start = parseCell(cells[0]);
+            int[] end = parseCell(cells.length > 1 ? cells[1] : cells[0]);
+
+            a1Range.startColumn = start[0] >= 0 ? start[0] : 0;
+            a1Range.startRow = start[1] >= 0 ? start[1] : 0;
+            a1Range.endColumn = end[0] >= 0 ? end[0] + 1 : Integer.MAX_VALUE;
+            a1Range.endRow = end[1] >= 0 ? end[1] + 1 : Integer.MAX_VALUE;
+
+            return a1Range;
+        }
+
+        /**
+         * @return {column index, row index}. -1 if omitted.
+         */
+        private static int[] parseCell(String cell) {
+            int column = -1;
+            int i = 0;
+
+            while (i < cell.length() && Character.isLetter(cell.charAt(i))) {
+                column = (column + 1) * 26 + (Character.toUpperCase(cell.charAt(i)) - 'A');
+                i++;
+            }
+
+            int row = i < cell.length() ? Integer.parseInt(cell.substring(i)) - 1 : -1;
+
+            return new int[]{column, row};
+        }
+
+        private static String unquote(String title) {
+            if (title.length() >= 2 && title.startsWith("'") && title.endsWith("'")) {
+                return title.substring(1, title.length() - 1).replace("''", "'");
+            }
+
+            return title;
+        }
+    }
+
+    private final LinkedHashMap<String, FakeSheet> sheets = new LinkedHashMap<>();
+    /**
+     * Serialized responses of GET requests, so that benchmarks of reads measure the client, not this fake.
+     * They are discarded by any write.
+     */
+    private final HashMap<String, byte[]> cachedResponses = new HashMap<>();
+    private String spreadsheetTitle = "Fake";
+    private int nextSheetId = 1;
+    private int requestCount;
+
+    public FakeSheetsTransport() {
+        // A new spreadsheet has Sheet1(sheetId=0).
+        sheets.put("Sheet1", new FakeSheet(0, "Sheet1"));
+    }
+
+    /**
+     * Creates a service of the Sheets API on this transport without authorization.
+     */
+    public Sheets newService() {
+        return new Sheets.Builder(this, JSON_FACTORY, new SentBytesCounter(null))
+                .setApplicationName("FakeSheets")
+                .build();
+    }
+
+    /**
+     * Creates a handler on this transport. The quotas are not limited so that calls are not throttled.
+     */
+    SpreadsheetHandler newHandler() throws IOException {
+        SpreadsheetHandler spreadsheetHandler = new SpreadsheetHandler(newService(), SPREADSHEET_ID, "Fake");
+        spreadsheetHandler.getRequestScheduler().setReadRequestsPerMinute(Integer.MAX_VALUE);
+        spreadsheetHandler.getRequestScheduler().setWriteRequestsPerMinute(Integer.MAX_VALUE);
+
+        return spreadsheetHandler;
+    }
+
+    public String getSpreadsheetId() {
+        return SPREADSHEET_ID;
+    }
+
+    /**
+     * Adds a sheet with a header row and given data rows.
+     */
+    public synchronized void putSheet(String title, List<Object> columns, List<List<Object>> rows) {
+        FakeSheet sheet = sheets.get(title);
+
+        if (sheet == null) {
+            sheet = new FakeSheet(nextSheetId++, title);
+            sheets.put(title, sheet);
+        }
+
+        cachedResponses.clear();
+        sheet.rows.clear();
+        sheet.rows.add(new ArrayList<>(columns));
+
+        for (List<Object> row : rows) {
+            sheet.rows.add(new ArrayList<>(row));
+        }
+    }
+
+    /**
+     * @return Rows of the sheet including the header row.
+     */
+    public synchronized List<List<Object>> getRows(String title) {
+        FakeSheet sheet = sheets.get(title);
+
+        return sheet != null ? new ArrayList<>(sheet.rows) : Collections.<List<Object>>emptyList();
+    }
+
+    /**
+     * @return The number of HTTP requests handled.
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(final String method, final String url) {
+        return new MockLowLevelHttpRequest(url) {
+
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                return new MockLowLevelHttpResponse()
+                        .setContentType("application/json; charset=UTF-8")
+                        .setContent(respond(method, url, getContentAsString()));
+            }
+        };
+    }
+
+    private synchronized byte[] respond(String method, String url, String content) throws IOException {
+        boolean isRead = "GET".equals(method);
+        byte[] response = isRead ? cachedResponses.get(url) : null;
+
+        if (response == null) {
+            response = JSON_FACTORY.toByteArray(handle(method, new GenericUrl(url), content));
+        } else {
+            requestCount++;
+        }
+
+        if (isRead) {
+            cachedResponses.put(url, response);
+        } else {
+            cachedResponses.clear();
+        }
+
+        return response;
+    }
+
+    private Object handle(String method, GenericUrl url, String content) throws IOException {
+        requestCount++;
+
+        List<String> pathParts = url.getPathParts();
+        // e.g.) ["", "v4", "spreadsheets", "{spreadsheetId}", "values", "{range}"]
+        int size = pathParts.size();
+        String last = pathParts.get(size - 1);
+
+        if (size == 3 && "POST".equals(method)) {
+            Spreadsheet spreadsheet = JSON_FACTORY.fromString(content, Spreadsheet.class);
+            spreadsheetTitle = spreadsheet.getProperties().getTitle();
+
+            return new Spreadsheet().setSpreadsheetId(SPREADSHEET_ID);
+        }
+
+        if (size == 4 && last.endsWith(":batchUpdate")) {
+            return batchUpdate(JSON_FACTORY.fromString(content, BatchUpdateSpreadsheetRequest.class));
+        }
+
+        if (size == 4) {
+            return getSpreadsheet(url.getAll("ranges"));
+        }
+
+        if (size == 5 && last.equals("values:batchGet")) {
+            String valueRenderOption = (String) url.getFirst("valueRenderOption");
+            BatchGetValuesResponse response = new BatchGetValuesResponse()
+                    .setSpreadsheetId(SPREADSHEET_ID)
+                    .setValueRanges(new ArrayList<ValueRange>());
+
+            for (Object range : url.getAll("ranges")) {
+                response.getValueRanges().add(getValues(range.toString(), valueRenderOption));
+            }
+
+            return response;
+        }
+
+        if (size == 6 && last.endsWith(":clear")) {
+            String range = last.substring(0, last.length() - ":clear".length());
+            clearValues(A1Range.parse(range));
+
+            return new ClearValuesResponse().setSpreadsheetId(SPREADSHEET_ID).setClearedRange(range);
+        }
+
+        if (size == 6 && "PUT".equals(method)) {
+            ValueRange body = JSON_FACTORY.fromString(content, ValueRange.class);
+            updateValues(A1Range.parse(last), body.getValues());
+
+            return new UpdateValuesResponse().setSpreadsheetId(SPREADSHEET_ID).setUpdatedRange(last);
+        }
+
+        if (size == 6) {
+            return getValues(last, (String) url.getFirst("valueRenderOption"));
+        }
+
+        throw new IOException("Unsupported request: " + method + " " + url);
+    }
+
+    /**
+     * @param ranges Ranges whose sheets are returned. If it is empty, all sheets are returned.
+     */
+    private Spreadsheet getSpreadsheet(Collection<Object> ranges) {
+        ArrayList<Sheet> sheetList = new ArrayList<>();
+        HashSet<String> titles = new HashSet<>();
+
+        for (Object range : ranges) {
+            titles.add(A1Range.parse(range.toString()).title);
+        }
+
+        for (FakeSheet sheet : sheets.values()) {
+            if (!titles.isEmpty() && !titles.contains(sheet.title)) {
+                continue;
+            }
+
+            // The grid has the rows written, and no extra rows.
+            sheetList.add(new Sheet().setProperties(new SheetProperties()
+                    .setSheetId(sheet.sheetId)
+                    .setTitle(sheet.title)
+                    .setGridProperties(new GridProperties().setRowCount(sheet.rows.size()))));
+        }
+
+        return new Spreadsheet()
+                .setSpreadsheetId(SPREADSHEET_ID)
+                .setProperties(new SpreadsheetProperties().setTitle(spreadsheetTitle))
+                .setSheets(sheetList);
+    }
+
+    private ValueRange getValues(String range, String valueRenderOption) throws IOException {
+        A1Range a1Range = A1Range.parse(range);
+        FakeSheet sheet = getSheet(a1Range.title);
+        boolean isFormatted = valueRenderOption == null || "FORMATTED_VALUE".equals(valueRenderOption);
+        ArrayList<List<Object>> values = new ArrayList<>();
+        int endRow = Math.min(a1Range.endRow, sheet.rows.size());
+
+        for (int i = a1Range.startRow; i < endRow; i++) {
+            List<Object> row = sheet.rows.get(i);
+            ArrayList<Object> rowData = new ArrayList<>();
+            int endColumn = Math.min(a1Range.endColumn, row.size());
+
+            for (int j = a1Range.startColumn; j < endColumn; j++) {
+                Object value = row.get(j);
+                rowData.add(value == null ? "" : isFormatted ? format(value) : value);
+            }
+
+            // Trailing empty cells are omitted.
+            while (!rowData.isEmpty() && "".equals(rowData.get(rowData.size() - 1))) {
+                rowData.remove(rowData.size() - 1);
+            }
+
+            values.add(rowData);
+        }
+
+        // Trailing empty rows are omitted.
+        while (!values.isEmpty() && values.get(values.size() - 1).isEmpty()) {
+            values.remove(values.size() - 1);
+        }
+
+        ValueRange valueRange = new ValueRange()
+                .setRange(range)
+                .setMajorDimension("ROWS");
+
+        return values.isEmpty() ? valueRange : valueRange.setValues(values);
+    }
+
+    private void updateValues(A1Range a1Range, List<List<Object>> values) throws IOException {
+        FakeSheet sheet = getSheet(a1Range.title);
+
+        if (values == null) {
+            return;
+        }
+
+        for (int i = 0; i < values.size(); i++) {
+            List<Object> rowData = values.get(i);
+
+            for (int j = 0; j < rowData.size(); j++) {
+                setCell(sheet, a1Range.startRow + i, a1Range.startColumn + j, rowData.get(j));
+            }
+        }
+    }
+
+    private void clearValues(A1Range a1Range) throws IOException {
+        FakeSheet sheet = getSheet(a1Range.title);
+        int endRow = Math.min(a1Range.endRow, sheet.rows.size());
+
+        for (int i = a1Range.startRow; i < endRow; i++) {
+            List<Object> row = sheet.rows.get(i);
+            int endColumn = Math.min(a1Range.endColumn, row.size());
+
+            for (int j = a1Range.startColumn; j < endColumn; j++) {
+                row.set(j, null);
+            }
+        }
+    }
+
+    private BatchUpdateSpreadsheetResponse batchUpdate(BatchUpdateSpreadsheetRequest body) throws IOException {
+        ArrayList<Response> replies = new ArrayList<>();
+
+        for (Request request : body.getRequests()) {
+            Response reply = new Response();
+
+            if (request.getAddSheet() != null) {
+                SheetProperties properties = request.getAddSheet().getProperties();
+                int sheetId = properties.getSheetId() != null ? properties.getSheetId() : nextSheetId++;
+
+                if (sheets.containsKey(properties.getTitle())) {
+                    throw new IOException("The sheet `" + properties.getTitle() + "` exists already.");
+                }
+
+                sheets.put(properties.getTitle(), new FakeSheet(sheetId, properties.getTitle()));
+                reply.setAddSheet(new AddSheetResponse().setProperties(new SheetProperties()
+                        .setSheetId(sheetId)
+                        .setTitle(properties.getTitle())));
+            } else if (request.getDeleteSheet() != null) {
+                sheets.remove(getSheet(request.getDeleteSheet().getSheetId()).title);
+            } else if (request.getUpdateSheetProperties() != null) {
+                SheetProperties properties = request.getUpdateSheetProperties().getProperties();
+                FakeSheet sheet = getSheet(properties.getSheetId() != null ? properties.getSheetId() : 0);
+                sheets.remove(sheet.title);
+                sheet.title = properties.getTitle();
+                sheets.put(sheet.title, sheet);
+            } else if (request.getAppendCells() != null) {
+                AppendCellsRequest appendCells = request.getAppendCells();
+                FakeSheet sheet = getSheet(appendCells.getSheetId());
+                int row = lastRowWithData(sheet) + 1;
+
+                for (RowData rowData : appendCells.getRows()) {
+                    writeRow(sheet, row++, 0, Integer.MAX_VALUE, rowData, false);
+                }
+            } else if (request.getUpdateCells() != null) {
+                UpdateCellsRequest updateCells = request.getUpdateCells();
+                GridRange range = updateCells.getRange();
+                FakeSheet sheet = getSheet(range.getSheetId());
+                boolean clearsRest = "*".equals(updateCells.getFields());
+                int startRow = range.getStartRowIndex() != null ? range.getStartRowIndex() : 0;
+                int startColumn = range.getStartColumnIndex() != null ? range.getStartColumnIndex() : 0;
+                int endColumn = range.getEndColumnIndex() != null ? range.getEndColumnIndex() : Integer.MAX_VALUE;
+                List<RowData> rows = updateCells.getRows() != null ? updateCells.getRows() : Collections.<RowData>emptyList();
+                int endRow = range.getEndRowIndex() != null ? range.getEndRowIndex() : startRow + rows.size();
+
+                for (int i = startRow; i < endRow; i++) {
+                    int index = i - startRow;
+                    writeRow(sheet, i, startColumn, endColumn, index < rows.size() ? rows.get(index) : new RowData(), clearsRest);
+                }
+            } else if (request.getDeleteDimension() != null) {
+                DimensionRange range = request.getDeleteDimension().getRange();
+                FakeSheet sheet = getSheet(range.getSheetId());
+                int endIndex = Math.min(range.getEndIndex(), sheet.rows.size());
+
+                if (range.getStartIndex() < endIndex) {
+                    sheet.rows.subList(range.getStartIndex(), endIndex).clear();
+                }
+            } else {
+                throw new IOException("Unsupported request: " + request);
+            }
+
+            replies.add(reply);
+        }
+
+        return new BatchUpdateSpreadsheetResponse()
+                .setSpreadsheetId(SPREADSHEET_ID)
+                .setReplies(replies);
+    }
+
+    private void writeRow(FakeSheet sheet, int row, int startColumn, int endColumn, RowData rowData, boolean clearsRest) {
+        List<CellData> cells = rowData.getValues() != null ? rowData.getValues() : Collections.<CellData>emptyList();
+
+        for (int j = 0; j < cells.size() && startColumn + j < endColumn; j++) {
+            ExtendedValue value = cells.get(j).getUserEnteredValue();
+            setCell(sheet, row, startColumn + j, value != null ? valueOf(value) : null);
+        }
+
+        if (clearsRest && endColumn != Integer.MAX_VALUE) {
+            for (int j = startColumn + cells.size(); j < endColumn; j++) {
+                setCell(sheet, row, j, null);
+            }
+        }
+    }
+
+    private static void setCell(FakeSheet sheet, int row, int column, Object value) {
+        while (sheet.rows.size() <= row) {
+            sheet.rows.add(new ArrayList<>());
+        }
+
+        List<Object> rowData = sheet.rows.get(row);
+
+        while (rowData.size() <= column) {
+            rowData.add(null);
+        }
+
+        rowData.set(column, value);
+    }
+
+    private static int lastRowWithData(FakeSheet sheet) {
+        for (int i = sheet.rows.size() - 1; i >= 0; i--) {
+            for (Object value : sheet.rows.get(i)) {
+                if (value != null) {
+                    return i;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private static Object valueOf(ExtendedValue value) {
+        if (value.getNumberValue() != null) {
+            return value.getNumberValue();
+        }
+
+        if (value.getBoolValue() != null) {
+            return value.getBoolValue();
+        }
+
+        return value.getStringValue();
+    }
+
+    /**
+     * Formats a value like the default number format of Sheets.
+     */
+    private static String format(Object value) {
+        if (value instanceof Double && (Double) value == Math.rint((Double) value) && !Double.isInfinite((Double) value)) {
+            return Long.toString(((Double) value).longValue());
+        }
+
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? "TRUE" : "FALSE";
+        }
+
+        return value.toString();
+    }
+
+    private FakeSheet getSheet(String title) throws IOException {
+        FakeSheet sheet = sheets.get(title);
+
+        if (sheet == null) {
+            throw new IOException("Unable to parse range: " + title);
+        }
+
+        return sheet;
+    }
+
+    private FakeSheet getSheet(Integer sheetId) throws IOException {
+        for (Map.Entry<String, FakeSheet> entry : sheets.entrySet()) {
+            if (sheetId != null && entry.getValue().sheetId == sheetId) {
+                return entry.getValue();
+            }
+        }
+
+        throw new IOException("No grid with id: " + sheetId);
+    }
+}
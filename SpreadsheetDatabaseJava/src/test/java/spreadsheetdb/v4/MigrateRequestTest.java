@@ -0,0 +1,118 @@
+package spreadsheetdb.v4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MigrateRequestTest {
+
+    private static final List<Object> COLUMNS = Arrays.<Object>asList("id", "name");
+    private static final List<Object> NEW_COLUMNS = Arrays.<Object>asList("name", "id");
+
+    /**
+     * Swaps the columns of records, so that a row migrated twice is swapped back.
+     */
+    private static class SwappingListener implements MigrateRequest.MigrationListener {
+
+        int migratedPageCount;
+        int failingPageCount = -1;
+
+        @Override
+        public List<Record> onMigrate(Table table, List<Object> newColumns, List<Record> oldRecords) {
+            if (migratedPageCount++ == failingPageCount) {
+                throw new IllegalStateException("The migration fails.");
+            }
+
+            ArrayList<Record> records = new ArrayList<>();
+
+            for (Record record : oldRecords) {
+                records.add(new Record(record.getRowIndex(), row(record.get(1), record.get(0))));
+            }
+
+            return records;
+        }
+    }
+
+    private FakeSheetsTransport transport;
+    private SpreadsheetHandler spreadsheetHandler;
+    private Metadata newMetadata;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FakeSheetsTransport();
+        transport.putSheet(Metadata.TABLE_NAME, Arrays.<Object>asList("key", "value"), new ArrayList<List<Object>>());
+
+        for (String tableName : Arrays.asList("t1", "t2")) {
+            transport.putSheet(tableName, COLUMNS, Arrays.<List<Object>>asList(
+                    row(1L, "a"), row(2L, "b"), row(), row(), row(5L, "e"), row(6L, "f")));
+        }
+
+        spreadsheetHandler = transport.newHandler();
+        newMetadata = new Metadata(Metadata.newInstance(false, "app", spreadsheetHandler, null));
+        newMetadata.setSchemaVersion(2);
+    }
+
+    @Test
+    public void migratesRowsAfterEmptyPages() throws Exception {
+        newRequest("t1").execute(new SwappingListener());
+
+        assertEquals(Arrays.asList(NEW_COLUMNS, row("a", 1.0), row("b", 2.0), row(), row(), row("e", 5.0), row("f", 6.0)),
+                transport.getRows("t1"));
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws Exception {
+        SwappingListener failingListener = new SwappingListener();
+        failingListener.failingPageCount = 1;
+
+        try {
+            newRequest("t1").execute(failingListener);
+            fail();
+        } catch (IllegalStateException e) {
+            // The first page is written.
+        }
+
+        SwappingListener listener = new SwappingListener();
+        newRequest("t1").execute(listener);
+
+        // The empty page is skipped, and the first page is not migrated again.
+        assertEquals(1, listener.migratedPageCount);
+        assertEquals(Arrays.asList(NEW_COLUMNS, row("a", 1.0), row("b", 2.0), row(), row(), row("e", 5.0), row("f", 6.0)),
+                transport.getRows("t1"));
+    }
+
+    @Test
+    public void keepsCheckpointPerTable() throws Exception {
+        SwappingListener failingListener = new SwappingListener();
+        failingListener.failingPageCount = 1;
+
+        try {
+            newRequest("t2").execute(failingListener);
+            fail();
+        } catch (IllegalStateException e) {
+            // The first page of t2 is written.
+        }
+
+        newRequest("t1").execute(new SwappingListener());
+
+        SwappingListener listener = new SwappingListener();
+        newRequest("t2").execute(listener);
+
+        assertEquals(1, listener.migratedPageCount);
+        assertEquals(transport.getRows("t1"), transport.getRows("t2"));
+    }
+
+    private MigrateRequest newRequest(String tableName) {
+        return new MigrateRequest(newMetadata, new Table(tableName, COLUMNS), NEW_COLUMNS, spreadsheetHandler, null).setPageSize(2);
+    }
+
+    private static List<Object> row(Object... values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+}
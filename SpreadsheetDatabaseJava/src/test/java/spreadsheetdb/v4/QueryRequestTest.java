@@ -0,0 +1,85 @@
+package spreadsheetdb.v4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryRequestTest {
+
+    private static final String TABLE_NAME = "Q1 Data's";
+    private static final List<Object> COLUMNS = Arrays.<Object>asList("id", "name");
+
+    private FakeSheetsTransport transport;
+    private SpreadsheetHandler spreadsheetHandler;
+    private Table table;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FakeSheetsTransport();
+        transport.putSheet(TABLE_NAME, COLUMNS, Arrays.<List<Object>>asList(row(1L, "a"), row(), row(3L, "c"), row(4L, "d")));
+        spreadsheetHandler = transport.newHandler();
+        table = new Table(TABLE_NAME, COLUMNS);
+    }
+
+    @Test
+    public void numbersRecordsByTheirRows() throws Exception {
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).all().execute();
+
+        assertEquals(3, records.size());
+        assertEquals(1, records.get(0).getRowIndex());
+        assertEquals(3, records.get(1).getRowIndex());
+        assertEquals(Arrays.<Object>asList(3L, "c"), records.get(1).getValues());
+    }
+
+    @Test
+    public void findsRecordsByRowIndices() throws Exception {
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).findByRowIndices(4, 1).execute();
+
+        assertEquals(2, records.size());
+        assertEquals("d", new QueryRequest(table, spreadsheetHandler).findByRowIndex(4).execute().get(0).getString(1));
+    }
+
+    @Test
+    public void findsRecordsByIndex() throws Exception {
+        table.createIndex("name");
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).findBy("name", "c").execute();
+
+        assertEquals(1, records.size());
+        assertEquals(3, records.get(0).getRowIndex());
+    }
+
+    @Test
+    public void streamsRecordsPageByPage() throws Exception {
+        ArrayList<Record> records = new ArrayList<>();
+
+        try (RecordIterator iterator = new QueryRequest(table, spreadsheetHandler).stream(2)) {
+            while (iterator.hasNext()) {
+                records.add(iterator.next());
+            }
+        }
+
+        assertEquals(3, records.size());
+        assertEquals(4, records.get(2).getRowIndex());
+    }
+
+    @Test
+    public void truncatesTable() throws Exception {
+        assertFalse(new QueryRequest(table, spreadsheetHandler).all().execute().isEmpty());
+
+        new TruncateRequest(table, spreadsheetHandler).execute();
+
+        assertTrue(new QueryRequest(table, spreadsheetHandler).all().execute().isEmpty());
+    }
+
+    private static List<Object> row(Object... values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+}
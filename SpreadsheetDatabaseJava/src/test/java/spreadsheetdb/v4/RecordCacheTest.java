@@ -0,0 +1,88 @@
+package spreadsheetdb.v4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecordCacheTest {
+
+    private static final List<Object> COLUMNS = Arrays.<Object>asList("id", "name");
+
+    private FakeSheetsTransport transport;
+    private SpreadsheetHandler spreadsheetHandler;
+    private Table table;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FakeSheetsTransport();
+        transport.putSheet("member", COLUMNS, rows(3));
+        spreadsheetHandler = transport.newHandler();
+        table = new Table("member", COLUMNS);
+        table.enableRecordCache(100, 60000);
+    }
+
+    @Test
+    public void readsCachedRowsWithoutCalls() throws Exception {
+        new QueryRequest(table, spreadsheetHandler).all().execute();
+        int requestCount = transport.getRequestCount();
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).all().execute();
+        Record record = new QueryRequest(table, spreadsheetHandler).findByRowIndex(2).execute().get(0);
+
+        assertEquals(requestCount, transport.getRequestCount());
+        assertEquals(3, records.size());
+        assertEquals(Arrays.<Object>asList(2L, "name2"), record.getValues());
+    }
+
+    @Test
+    public void followsUpdatedCells() throws Exception {
+        new QueryRequest(table, spreadsheetHandler).all().execute();
+
+        Record record = new Record(2, new ArrayList<>(Arrays.<Object>asList(2L, "name2")));
+        record.set(1, "changed");
+        new BatchUpdateRequest(table, spreadsheetHandler).update(record).execute();
+
+        assertEquals("changed", new QueryRequest(table, spreadsheetHandler).findByRowIndex(2).execute().get(0).getString(1));
+        assertEquals("changed", new QueryRequest(table, spreadsheetHandler).all().execute().get(1).getString(1));
+    }
+
+    @Test
+    public void readsInsertedRows() throws Exception {
+        new QueryRequest(table, spreadsheetHandler).all().execute();
+
+        new BatchUpdateRequest(table, spreadsheetHandler).insert(new Record(Arrays.<Object>asList(4L, "name4"))).execute();
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).all().execute();
+
+        assertEquals(4, records.size());
+        assertEquals(Arrays.<Object>asList(4L, "name4"), records.get(3).getValues());
+    }
+
+    @Test
+    public void dropsDeletedRows() throws Exception {
+        new QueryRequest(table, spreadsheetHandler).all().execute();
+
+        new BatchDeleteRequest(table, spreadsheetHandler).setRecords(new ArrayList<>(Arrays.asList(new Record(1)))).execute();
+
+        List<Record> records = new QueryRequest(table, spreadsheetHandler).all().execute();
+
+        assertEquals(2, records.size());
+        assertEquals(Arrays.<Object>asList(2L, "name2"), records.get(0).getValues());
+        assertEquals(1, records.get(0).getRowIndex());
+    }
+
+    private static List<List<Object>> rows(int rowCount) {
+        ArrayList<List<Object>> rows = new ArrayList<>();
+
+        for (int i = 1; i <= rowCount; i++) {
+            rows.add(Arrays.<Object>asList((long) i, "name" + i));
+        }
+
+        return rows;
+    }
+}
@@ -0,0 +1,99 @@
+package spreadsheetdb.v4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicaTest {
+
+    private static final List<Object> COLUMNS = Arrays.<Object>asList("id", "name");
+
+    private FakeSheetsTransport transport;
+    private SpreadsheetHandler spreadsheetHandler;
+    private Table table;
+    private Replica replica;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FakeSheetsTransport();
+        transport.putSheet("member", COLUMNS, Arrays.<List<Object>>asList(row(1L, "a"), row(2L, "b"), row(3L, "c")));
+        spreadsheetHandler = transport.newHandler();
+        table = new Table("member", COLUMNS).setReplicated(true);
+
+        ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<>();
+        tables.put("member", table);
+        replica = new Replica(spreadsheetHandler, tables, "member", 60000);
+    }
+
+    @After
+    public void tearDown() {
+        replica.shutdown();
+    }
+
+    @Test
+    public void readsChangedRowsOnly() throws Exception {
+        assertEquals(3, replica.refresh());
+
+        new BatchUpdateRequest(table, spreadsheetHandler)
+                .update(new Record(2, Arrays.<Object>asList(2L, "updated")))
+                .insert(new Record(Arrays.<Object>asList(4L, "inserted")))
+                .execute();
+
+        assertEquals(2, replica.refresh());
+
+        List<Record> records = replica.getRecords();
+
+        assertEquals(4, records.size());
+        assertEquals("updated", records.get(1).getString(1));
+        assertEquals("inserted", records.get(3).getString(1));
+        assertEquals(0, replica.refresh());
+    }
+
+    @Test
+    public void dropsDeletedAndTombstonedRows() throws Exception {
+        replica.refresh();
+
+        new BatchDeleteRequest(table, spreadsheetHandler).setRecords(new ArrayList<>(Arrays.asList(new Record(1)))).execute();
+        replica.refresh();
+
+        assertEquals(2, replica.getRecords().size());
+        assertEquals("b", replica.getRecords().get(0).getString(1));
+
+        table.setSoftDeleteEnabled(true);
+        new BatchDeleteRequest(table, spreadsheetHandler).setRecords(new ArrayList<>(Arrays.asList(new Record(2)))).execute();
+        replica.refresh();
+
+        assertEquals(1, replica.getRecords().size());
+        assertEquals("b", replica.getRecords().get(0).getString(1));
+    }
+
+    @Test
+    public void dropsTruncatedRows() throws Exception {
+        replica.refresh();
+
+        new TruncateRequest(table, spreadsheetHandler).execute();
+        replica.refresh();
+
+        assertTrue(replica.getRecords().isEmpty());
+
+        new BatchUpdateRequest(table, spreadsheetHandler).insert(new Record(Arrays.<Object>asList(4L, "inserted"))).execute();
+        replica.refresh();
+
+        // The row version column is cleared, so that the row is appended to the first data row.
+        assertEquals(1, new QueryRequest(table, spreadsheetHandler).findBy("id", 4L).execute().get(0).getRowIndex());
+        assertEquals(1, replica.getRecords().size());
+        assertEquals(1, replica.getRecords().get(0).getRowIndex());
+    }
+
+    private static List<Object> row(Object... values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,56 @@
+package spreadsheetdb.v4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpreadsheetHandlerTest {
+
+    private static final List<Object> COLUMNS = Arrays.<Object>asList("id", "name");
+
+    private SpreadsheetHandler spreadsheetHandler;
+    private final ArrayList<RoundTrip> roundTrips = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        FakeSheetsTransport transport = new FakeSheetsTransport();
+        transport.putSheet("member", COLUMNS, new ArrayList<List<Object>>());
+        spreadsheetHandler = transport.newHandler();
+        spreadsheetHandler.setMetricsListener(new MetricsListener() {
+
+            @Override
+            public void onRoundTrip(RoundTrip roundTrip) {
+                roundTrips.add(roundTrip);
+            }
+        });
+    }
+
+    @Test
+    public void countsCompressedBodies() throws Exception {
+        Table table = new Table("member", COLUMNS);
+        BatchUpdateRequest request = new BatchUpdateRequest(table, spreadsheetHandler);
+
+        for (int i = 0; i < 1000; i++) {
+            request.insert(new Record(Arrays.<Object>asList((long) i, "a repeated name")));
+        }
+
+        request.execute();
+        new QueryRequest(table, spreadsheetHandler).all().execute();
+
+        RoundTrip append = roundTrips.get(0);
+        RoundTrip query = roundTrips.get(1);
+
+        assertEquals(Operation.APPEND, append.getOperation());
+        assertEquals(2000, append.getCellsSent());
+        // Each cell takes tens of bytes of JSON before it is compressed.
+        assertTrue(append.getBytesSent() > 0 && append.getBytesSent() < append.getCellsSent() * 10);
+        assertEquals(0, query.getBytesSent());
+        assertTrue(query.getBytesReceived() > 0);
+    }
+}
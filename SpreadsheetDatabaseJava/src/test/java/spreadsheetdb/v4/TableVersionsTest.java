@@ -0,0 +1,97 @@
+package spreadsheetdb.v4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TableVersionsTest {
+
+    private FakeSheetsTransport transport;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FakeSheetsTransport();
+        transport.putSheet(Metadata.TABLE_NAME, Arrays.<Object>asList("key", "value"), new ArrayList<List<Object>>());
+
+        for (int i = 0; i < 4; i++) {
+            transport.putSheet("t" + i, Arrays.<Object>asList("id"), new ArrayList<List<Object>>());
+        }
+
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void processesAllocatingVersionsAgree() throws Exception {
+        ArrayList<Future<TableVersions>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            final String tableName = "t" + i % 4;
+
+            futures.add(executor.submit(new Callable<TableVersions>() {
+
+                @Override
+                public TableVersions call() throws Exception {
+                    TableVersions tableVersions = newTableVersions();
+                    tableVersions.allocate(tableName);
+
+                    return tableVersions;
+                }
+            }));
+        }
+
+        TableVersions loadedVersions = newTableVersions();
+        ArrayList<TableVersions> allocatedVersions = new ArrayList<>();
+
+        for (Future<TableVersions> future : futures) {
+            allocatedVersions.add(future.get());
+        }
+
+        loadedVersions.load();
+
+        for (TableVersions tableVersions : allocatedVersions) {
+            for (int i = 0; i < 4; i++) {
+                if (tableVersions.has("t" + i)) {
+                    assertEquals(loadedVersions.get("t" + i), tableVersions.get("t" + i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bumpsVersion() throws Exception {
+        TableVersions tableVersions = newTableVersions();
+        tableVersions.allocate("t0");
+        String version = tableVersions.get("t0");
+
+        tableVersions.bump("t0");
+
+        TableVersions loadedVersions = newTableVersions();
+        loadedVersions.load();
+
+        assertNotEquals(version, tableVersions.get("t0"));
+        assertEquals(tableVersions.get("t0"), loadedVersions.get("t0"));
+    }
+
+    private TableVersions newTableVersions() throws Exception {
+        SpreadsheetHandler spreadsheetHandler = transport.newHandler();
+
+        return new TableVersions(spreadsheetHandler, Metadata.newInstance(false, "app", spreadsheetHandler, null));
+    }
+}
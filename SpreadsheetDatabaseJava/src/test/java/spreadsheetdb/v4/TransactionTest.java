@@ -0,0 +1,65 @@
+package spreadsheetdb.v4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TransactionTest {
+
+    private static final List<Object> COLUMNS = Arrays.<Object>asList("id", "name");
+
+    private FakeSheetsTransport transport;
+    private SpreadsheetDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = new FakeSheetsTransport();
+        transport.putSheet(Metadata.TABLE_NAME, Arrays.<Object>asList("key", "value"), new ArrayList<List<Object>>());
+        transport.putSheet("member", COLUMNS, Arrays.<List<Object>>asList(row(1L, "a"), row(2L, "b"), row(3L, "c")));
+        transport.putSheet("queue", COLUMNS, Arrays.<List<Object>>asList(row(1L, "x"), row(2L, "y")));
+        database = new SpreadsheetDatabase(transport.newHandler(), "app");
+    }
+
+    @Test
+    public void commitsChangesOfTablesInACall() throws Exception {
+        int requestCount = transport.getRequestCount();
+
+        database.transaction()
+                .update("member", new Record(2, Arrays.<Object>asList(2L, "updated")))
+                .delete("member", new Record(1))
+                .delete("queue", new Record(1))
+                .delete("queue", new Record(1))
+                .insert("member", new Record(Arrays.<Object>asList(4L, "inserted")))
+                .execute();
+
+        assertEquals(requestCount + 1, transport.getRequestCount());
+        assertEquals(Arrays.asList(row(2.0, "updated"), row(3L, "c"), row(4.0, "inserted")), transport.getRows("member").subList(1, 4));
+        assertEquals(Arrays.asList(COLUMNS, row(2L, "y")), transport.getRows("queue"));
+    }
+
+    @Test
+    public void tombstonesRowsInSoftDeleteMode() throws Exception {
+        database.getTable("member").setSoftDeleteEnabled(true);
+
+        database.transaction()
+                .delete("member", new Record(2))
+                .insert("member", new Record(Arrays.<Object>asList(4L, "inserted")))
+                .execute();
+
+        List<Record> records = database.queryRequest("member").all().execute();
+
+        assertEquals(3, records.size());
+        assertEquals(1, records.get(0).getRowIndex());
+        assertEquals(3, records.get(1).getRowIndex());
+        assertEquals(4, records.get(2).getRowIndex());
+    }
+
+    private static List<Object> row(Object... values) {
+        return new ArrayList<>(Arrays.asList(values));
+    }
+}